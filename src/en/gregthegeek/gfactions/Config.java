@@ -27,6 +27,16 @@ public class Config {
 		EXTERNAL;
 	}
 	
+	private enum DatasourceEnum {
+		DATABASE,
+		JOURNAL;
+	}
+	
+	private enum LandStorageEnum {
+		DATABASE,
+		MAPPED;
+	}
+	
 	public Config() {
 		new File(FOLDER).mkdirs();
 		
@@ -49,6 +59,12 @@ public class Config {
 		props.getBoolean("tags-in-chat", true, "Whether or not public chat shows faction tags.");
 		props.getInt("no-tp-enemy-dist", 32, "Enemies must be this distance away or more in order to teleport.");
 		props.getInt("max_power", 10, "The maximum power level players can attain.");
+		props.getEnum("datasource", DatasourceEnum.DATABASE, "Where data is stored. Available options are DATABASE (the server database) and JOURNAL (a change log and snapshot in the journal folder).");
+		props.getInt("journal-sync-interval", 100, "The milliseconds between syncs of the journal to disk. Only used with the JOURNAL datasource.");
+		props.getBoolean("write-behind", true, "Whether or not database writes are done on a separate thread instead of the server thread.");
+		props.getEnum("land-storage", LandStorageEnum.DATABASE, "Where land claims are stored. Available options are DATABASE and MAPPED (binary files in the land folder, imported from the database on first use).");
+		props.getInt("write-queue-size", 10000, "The maximum amount of rows waiting to be written when write-behind is on. When full, the server waits for the writer to catch up.");
+		props.getInt("faction-cache-size", 1000, "The maximum amount of factions with their members, home, and description kept in memory. Others are loaded when needed. Values <=0 keep every faction loaded.");
 		
 		try {
 			props.save();
@@ -125,6 +141,60 @@ public class Config {
 		return props.getInt("save-interval") * 1000;
 	}
 	
+	/**
+	 * Returns whether or not database writes are queued and done on a background thread.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isWriteBehind() {
+		return props.getBoolean("write-behind");
+	}
+	
+	/**
+	 * Returns whether or not data is stored in a journal instead of the database.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isJournalStorage() {
+		return props.getEnum("datasource", DatasourceEnum.class) == DatasourceEnum.JOURNAL;
+	}
+	
+	/**
+	 * Returns the journal sync interval in milliseconds.
+	 * 
+	 * @return int
+	 */
+	public int getJournalSyncInterval() {
+		return props.getInt("journal-sync-interval");
+	}
+	
+	/**
+	 * Returns whether or not land is stored in memory-mapped files instead of the database.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isMappedLandStorage() {
+		return props.getEnum("land-storage", LandStorageEnum.class) == LandStorageEnum.MAPPED;
+	}
+	
+	/**
+	 * Returns the maximum amount of rows waiting to be written by the background writer.
+	 * 
+	 * @return int
+	 */
+	public int getWriteQueueSize() {
+		return props.getInt("write-queue-size");
+	}
+	
+	/**
+	 * Returns the maximum amount of factions kept fully loaded, or <=0 for no limit.
+	 * 
+	 * @return int
+	 */
+	public int getFactionCacheSize() {
+		return props.getInt("faction-cache-size");
+	}
+	
 	/**
 	 * Returns the power regeneration interval in milliseconds.
 	 * 
@@ -16,6 +16,7 @@ import en.gregthegeek.gfactions.economy.Economy;
 import en.gregthegeek.gfactions.economy.InactiveEconomy;
 import en.gregthegeek.gfactions.faction.Faction;
 import en.gregthegeek.gfactions.faction.FactionManager;
+import en.gregthegeek.gfactions.faction.FactionRanking;
 import en.gregthegeek.gfactions.faction.SpecialFaction;
 import en.gregthegeek.gfactions.faction.Wilderness;
 import en.gregthegeek.gfactions.faction.ZoneFaction;
@@ -81,12 +82,19 @@ public class FactionCommand implements CommandListener {
 			}
 		};
 			
-		subCommands[1] = new FactionSubCommand(new String[] {"list", "ls"}, "Lists active factions.", "(page)") {
+		subCommands[1] = new FactionSubCommand(new String[] {"list", "ls"}, "Lists active factions.", "(page) (power|land|members)") {
 			@Override
 			String[] execute(MessageReceiver caller, String[] args) {
 				try {
 					int page = args.length > 0 ? Integer.parseInt(args[0]) - 1 : 0;
-					return Utils.plugin.getFactionManager().getList(page, caller instanceof Player ? Utils.plugin.getFactionManager().getFaction(((Player) caller).getName()) : null);
+					FactionRanking.SortKey sort = FactionRanking.SortKey.POWER;
+					if(args.length > 1) {
+						sort = FactionRanking.SortKey.fromString(args[1]);
+						if(sort == null) {
+							return new String[] {Utils.rose("Factions can be sorted by power, land, or members.")};
+						}
+					}
+					return Utils.plugin.getFactionManager().getList(page, caller instanceof Player ? Utils.plugin.getFactionManager().getFaction(((Player) caller).getName()) : null, sort);
 				} catch (NumberFormatException e) {
 					return new String[] {Utils.rose("%s is not a number!", args[0])};
 				}
@@ -501,7 +509,7 @@ public class FactionCommand implements CommandListener {
 					case 's':
 					case 'w':
 						Faction f = Utils.plugin.getFactionManager().getFaction(c == 's' ? -2 : -3);
-						Utils.plugin.getLandManager().getLandAt(((Player) caller).getLocation()).claim(f);
+						Utils.plugin.getLandManager().getEditableLandAt(((Player) caller).getLocation()).claim(f);
 						return new String[] {String.format("%sLand claimed for %s", TextFormat.YELLOW, f.getName())};
 					}
 				}
@@ -891,20 +899,20 @@ public class FactionCommand implements CommandListener {
 		String pName = claimer.getName();
 		Faction f = Utils.plugin.getFactionManager().getFaction(pName);
 		assert f != null && !(f instanceof SpecialFaction);
-		Land l = Utils.plugin.getLandManager().getLandAt(claimer.getLocation());
-		Faction other = l.claimedBy();
+		LandManager lm = Utils.plugin.getLandManager();
+		Faction other = lm.getLandAt(claimer.getLocation()).claimedBy();
 		if(other instanceof ZoneFaction) {
 			return Utils.rose("You cannot claim %s.", other.getName());
 		} else if(f.equals(other)) {
 			return Utils.rose("This land is already owned by your faction.");
-		} else if(f.getLand().length >= f.getPower()) {
+		} else if(f.getLandCount() >= f.getPower()) {
 			return Utils.rose("You do not have enough power to claim any more land.");
-		} else if(other == null || other.getLand().length > other.getPower()) {
+		} else if(other == null || other.getLandCount() > other.getPower()) {
 			boolean wasWild = other == null || other instanceof Wilderness;
-			if(!Utils.plugin.getEconomy().modifyBalance(f, -Utils.plugin.getConfig().getClaimCost(wasWild, f.getLand().length))) {
+			if(!Utils.plugin.getEconomy().modifyBalance(f, -Utils.plugin.getConfig().getClaimCost(wasWild, f.getLandCount()))) {
 				return Utils.rose("Your faction cannot afford to claim this land.");
 			}
-			l.claim(f);
+			lm.getEditableLandAt(claimer.getLocation()).claim(f);
 			if(!wasWild) {
 				other.sendToMembers(String.format("%s %sclaimed your land.", f.getNameRelative(other), TextFormat.YELLOW));
 			}
@@ -0,0 +1,42 @@
+package en.gregthegeek.gfactions.db;
+
+import net.canarymod.database.Column;
+import net.canarymod.database.DataAccess;
+
+public class BalanceDataAccess extends DataAccess {
+    private static final String NAME = "balances";
+    
+    // player accounts have faction -1, faction accounts have an empty player
+    @Column(columnName = "player", dataType = Column.DataType.STRING)
+    public String player;
+    @Column(columnName = "faction", dataType = Column.DataType.INTEGER)
+    public int faction;
+    @Column(columnName = "balance", dataType = Column.DataType.INTEGER)
+    public int balance;
+    
+    public BalanceDataAccess() {
+        super(CanarySource.PREFIX, NAME);
+        player = "";
+        faction = -1;
+        balance = 0;
+    }
+    
+    public BalanceDataAccess(String player, int balance) {
+        super(CanarySource.PREFIX, NAME);
+        this.player = player;
+        this.faction = -1;
+        this.balance = balance;
+    }
+    
+    public BalanceDataAccess(int faction, int balance) {
+        super(CanarySource.PREFIX, NAME);
+        this.player = "";
+        this.faction = faction;
+        this.balance = balance;
+    }
+
+    @Override
+    public DataAccess getInstance() {
+        return new BalanceDataAccess();
+    }
+}
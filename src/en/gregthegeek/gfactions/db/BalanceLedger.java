@@ -0,0 +1,144 @@
+package en.gregthegeek.gfactions.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import en.gregthegeek.util.AdvancedPropertiesFile;
+import en.gregthegeek.util.Utils;
+
+/**
+ * Reads balances stored in files by older versions, so they can be moved into the database.
+ * These are either a snapshot plus an append-only ledger of changes, or the original balances.txt.
+ * 
+ * @author gregthegeek
+ *
+ */
+class BalanceLedger {
+	private final File snapshot;
+	private final File ledger;
+	private final File legacy;
+	private final HashMap<String, Integer> players = new HashMap<String, Integer>(); // player name -> balance
+	private final HashMap<Integer, Integer> factions = new HashMap<Integer, Integer>(); // faction id -> balance
+	
+	/**
+	 * Loads the balance files in a folder. The snapshot and ledger are preferred over balances.txt.
+	 * 
+	 * @param folder The folder balances were stored in.
+	 * @throws IOException
+	 */
+	BalanceLedger(File folder) throws IOException {
+		this.snapshot = new File(folder, "balances.dat");
+		this.ledger = new File(folder, "balances.ledger");
+		this.legacy = new File(folder, "balances.txt");
+		if(snapshot.exists() || ledger.exists()) {
+			read(snapshot);
+			read(ledger);
+		} else if(legacy.exists()) {
+			importLegacy(legacy);
+		}
+	}
+	
+	/**
+	 * Returns whether or not there are any balance files in the folder.
+	 * 
+	 * @param folder The folder balances were stored in.
+	 * @return boolean
+	 */
+	static boolean exists(File folder) {
+		return new File(folder, "balances.dat").exists() || new File(folder, "balances.ledger").exists() || new File(folder, "balances.txt").exists();
+	}
+	
+	/**
+	 * Reads balance lines from a file into memory, stopping at the first malformed line.
+	 * 
+	 * @param f The file to read.
+	 * @return int The amount of lines read.
+	 */
+	private int read(File f) throws IOException {
+		if(!f.exists()) {
+			return 0;
+		}
+		int count = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] split = line.split("\t");
+				try {
+					if(split.length != 3) {
+						throw new NumberFormatException();
+					} else if(split[0].equals("P")) {
+						players.put(split[1], Integer.parseInt(split[2]));
+					} else if(split[0].equals("F")) {
+						factions.put(Integer.parseInt(split[1]), Integer.parseInt(split[2]));
+					} else {
+						throw new NumberFormatException();
+					}
+				} catch (NumberFormatException e) {
+					// only the last line can be partly written
+					Utils.warning("Ignoring malformed balance line %d in %s", count + 1, f.getName());
+					break;
+				}
+				count++;
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Reads balances.txt, where faction ids and player names shared one set of keys.
+	 * Numeric keys are taken as factions, since that is how they were looked up.
+	 */
+	private void importLegacy(File legacy) throws IOException {
+		AdvancedPropertiesFile props = new AdvancedPropertiesFile(legacy.getPath());
+		for(String key : props.returnMap().keySet()) {
+			int balance;
+			try {
+				balance = props.getInt(key);
+			} catch (NumberFormatException e) {
+				Utils.warning("Skipping unreadable balance for %s in balances.txt", key);
+				continue;
+			}
+			try {
+				factions.put(Integer.parseInt(key), balance);
+			} catch (NumberFormatException e) {
+				players.put(key, balance);
+			}
+		}
+	}
+
+	/**
+	 * Returns the balances of players.
+	 * 
+	 * @return Map<String, Integer> Player name -> balance.
+	 */
+	Map<String, Integer> getPlayers() {
+		return players;
+	}
+	
+	/**
+	 * Returns the balances of factions.
+	 * 
+	 * @return Map<Integer, Integer> Faction id -> balance.
+	 */
+	Map<Integer, Integer> getFactions() {
+		return factions;
+	}
+	
+	/**
+	 * Renames the balance files so they are not read again.
+	 */
+	void markImported() {
+		for(File f : new File[] {snapshot, ledger, legacy}) {
+			if(f.exists() && !f.renameTo(new File(f.getPath() + ".imported"))) {
+				Utils.warning("Unable to rename %s, it will not be imported again as long as the database has balances", f.getName());
+			}
+		}
+	}
+}
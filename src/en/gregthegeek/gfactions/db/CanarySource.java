@@ -1,34 +1,47 @@
 package en.gregthegeek.gfactions.db;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 
+import en.gregthegeek.gfactions.Config;
 import en.gregthegeek.gfactions.faction.CachedFaction;
 import en.gregthegeek.gfactions.faction.Faction;
 import en.gregthegeek.gfactions.land.Land;
 import en.gregthegeek.gfactions.player.gPlayer;
 import en.gregthegeek.gfactions.relation.Relation;
-import en.gregthegeek.util.AdvancedPropertiesFile;
 import en.gregthegeek.util.Utils;
 
 public class CanarySource implements Datasource {
     protected static final String PREFIX = "factions";
-    private static final AdvancedPropertiesFile balances = getProps("balances.txt");
+    // rows known to exist in the database, so saves can go straight to update or insert. May be written from a WriteBehindSource's thread.
+    private final Set<Integer> knownFactions = Collections.synchronizedSet(new HashSet<Integer>());
+    private final Set<String> knownPlayers = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<Long> knownRelations = Collections.synchronizedSet(new HashSet<Long>()); // pair(one, two) as stored
+    private final Set<Long> knownLand = Collections.synchronizedSet(new HashSet<Long>()); // pair(x, z)
+    private final Set<String> knownPlayerBalances = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<Integer> knownFactionBalances = Collections.synchronizedSet(new HashSet<Integer>());
     
     public CanarySource() {
         try {
             Database.get().updateSchema(new FactionDataAccess());
+            Database.get().updateSchema(new BalanceDataAccess());
         } catch (DatabaseWriteException e) {
             report(e, "CanarySource()");
         }
+        importBalances();
     }
 
     @Override
@@ -36,7 +49,10 @@ public class CanarySource implements Datasource {
         try {
             FactionDataAccess da = new FactionDataAccess();
             Database.get().load(da, new String[] {"id"}, new Object[] {id});
-            if(da.hasData()) return da.toCachedFaction();
+            if(da.hasData()) {
+                knownFactions.add(id);
+                return da.toCachedFaction();
+            }
         } catch (DatabaseReadException e) {
             report(e, "getFaction(int)");
         }
@@ -51,7 +67,9 @@ public class CanarySource implements Datasource {
             Database.get().loadAll(new FactionDataAccess(), list, new String[0], new Object[0]);
             Faction[] rt = new Faction[list.size()];
             for(int i=0; i<rt.length; i++) {
-                rt[i] = ((FactionDataAccess) list.get(i)).toCachedFaction();
+                FactionDataAccess da = (FactionDataAccess) list.get(i);
+                knownFactions.add(da.id);
+                rt[i] = da.toCachedFaction();
             }
             return rt;
         } catch (DatabaseReadException e) {
@@ -67,7 +85,9 @@ public class CanarySource implements Datasource {
             Database.get().loadAll(new LandDataAccess(), list, new String[0], new Object[0]);
             Land[] rt = new Land[list.size()];
             for(int i=0; i<rt.length; i++) {
-                rt[i] = ((LandDataAccess) list.get(i)).toLand();
+                LandDataAccess da = (LandDataAccess) list.get(i);
+                knownLand.add(pair(da.x, da.z));
+                rt[i] = da.toLand();
             }
             return rt;
         } catch (DatabaseReadException e) {
@@ -76,6 +96,24 @@ public class CanarySource implements Datasource {
         return new Land[0];
     }
 
+    @Override
+    public Relation[] getAllRelations() {
+        try {
+            List<DataAccess> list = new ArrayList<DataAccess>();
+            Database.get().loadAll(new RelationDataAccess(), list, new String[0], new Object[0]);
+            Relation[] rt = new Relation[list.size()];
+            for(int i=0; i<rt.length; i++) {
+                RelationDataAccess da = (RelationDataAccess) list.get(i);
+                knownRelations.add(pair(da.one, da.two));
+                rt[i] = da.toRelation();
+            }
+            return rt;
+        } catch (DatabaseReadException e) {
+            report(e, "getAllRelations()");
+        }
+        return new Relation[0];
+    }
+
     @Override
     public Relation getRelation(Faction one, Faction two) {
         try {
@@ -83,9 +121,15 @@ public class CanarySource implements Datasource {
             int a = one.getId();
             int b = two.getId();
             Database.get().load(da, new String[] {"one", "two"}, new Object[] {a, b});
-            if(da.hasData()) return da.toRelation();
+            if(da.hasData()) {
+                knownRelations.add(pair(a, b));
+                return da.toRelation();
+            }
             Database.get().load(da, new String[] {"one", "two"}, new Object[] {b, a});
-            if(da.hasData()) return da.toRelation();
+            if(da.hasData()) {
+                knownRelations.add(pair(b, a));
+                return da.toRelation();
+            }
         } catch (DatabaseReadException e) {
             report(e, "getRelation(Faction, Faction)");
         }
@@ -120,7 +164,10 @@ public class CanarySource implements Datasource {
         try {
             PlayerDataAccess da = new PlayerDataAccess();
             Database.get().load(da, new String[] {"name"}, new Object[] {name});
-            if(da.hasData()) return da.toGPlayer();
+            if(da.hasData()) {
+                knownPlayers.add(da.name);
+                return da.toGPlayer();
+            }
         } catch (DatabaseReadException e) {
             report(e, "getPlayer(String)");
         }
@@ -128,49 +175,59 @@ public class CanarySource implements Datasource {
     }
 
     @Override
-    public void close() {
-        // do nothing?
-    }
-    
-    private boolean hasFaction(int id) { // TODO: remove comments
+    public gPlayer[] getAllPlayers() {
         try {
-            System.out.printf("searching for fac with id %d%n", id);
-            FactionDataAccess da = new FactionDataAccess();
-            Database.get().load(da, new String[] {"id"}, new Object[] {id});
-            System.out.printf("loaded, hasData: %s%n", da.hasData() ? "yes" : "no");
-            return da.hasData();
+            List<DataAccess> list = new ArrayList<DataAccess>();
+            Database.get().loadAll(new PlayerDataAccess(), list, new String[0], new Object[0]);
+            gPlayer[] rt = new gPlayer[list.size()];
+            for(int i=0; i<rt.length; i++) {
+                PlayerDataAccess da = (PlayerDataAccess) list.get(i);
+                knownPlayers.add(da.name);
+                rt[i] = da.toGPlayer();
+            }
+            return rt;
         } catch (DatabaseReadException e) {
-            System.out.printf("read exception while looking for fac%n");
-            report(e, "hasFaction(int)");
+            report(e, "getAllPlayers()");
         }
-        return false;
+        return null;
     }
 
+    @Override
+    public void close() {
+        // nothing is held open
+    }
+    
     @Override
     public void save(CachedFaction faction) {
-        try {
+        saveFactions(Collections.singletonList(faction));
+    }
+    
+    @Override
+    public void saveFactions(Collection<CachedFaction> factions) {
+        // known rows are updated one by one without an existence check, then the rest are inserted
+        ArrayList<FactionDataAccess> inserts = new ArrayList<FactionDataAccess>();
+        DatabaseWriteException ex = null;
+        for(CachedFaction faction : factions) {
             FactionDataAccess da = new FactionDataAccess(faction);
-            if(hasFaction(da.id)) {
-                //System.out.printf("UPDATING FACTION %d WITH VALUES %s%n", da.id, da.getUpdateFieldValues());
+            if(!knownFactions.contains(da.id)) {
+                inserts.add(da);
+                continue;
+            }
+            try {
                 Database.get().update(da, new String[] {"id"}, new Object[] {da.id});
-            } else {
-                //System.out.printf("INSERTING NEW FACTION WITH VALUES %s%n", da.getUpdateFieldValues());
-                Database.get().insert(da);
+            } catch (DatabaseWriteException e) {
+                ex = e;
             }
-        } catch (DatabaseWriteException e) {
-            report(e, "save(CachedFaction)");
         }
-    }
-
-    private boolean hasPlayer(String name) {
-        try {
-            PlayerDataAccess da = new PlayerDataAccess();
-            Database.get().load(da, new String[] {"name"}, new Object[] {name});
-            return da.hasData();
-        } catch (DatabaseReadException e) {
-            report(e, "hasPlayer(String)");
+        for(FactionDataAccess da : inserts) {
+            try {
+                insertOrUpdate(da, new String[] {"id"}, new Object[] {da.id});
+                knownFactions.add(da.id);
+            } catch (DatabaseWriteException e) {
+                ex = e;
+            }
         }
-        return false;
+        if(ex != null) report(ex, "saveFactions(Collection)");
     }
     
     @Override
@@ -179,10 +236,11 @@ public class CanarySource implements Datasource {
         for(gPlayer gp : players) {
             try {
                 PlayerDataAccess da = new PlayerDataAccess(gp);
-                if(hasPlayer(da.name)) {
+                if(knownPlayers.contains(da.name)) {
                     Database.get().update(da, new String[] {"name"}, new Object[] {da.name});
                 } else {
-                    Database.get().insert(da);
+                    insertOrUpdate(da, new String[] {"name"}, new Object[] {da.name});
+                    knownPlayers.add(da.name);
                 }
             } catch (DatabaseWriteException e) {
                 ex = e;
@@ -190,17 +248,6 @@ public class CanarySource implements Datasource {
         }
         if(ex != null) report(ex, "save(gPlayer[])");
     }
-    
-    private boolean hasRelation(int one, int two) {
-        try {
-            RelationDataAccess da = new RelationDataAccess();
-            Database.get().load(da, new String[] {"one", "two"}, new Object[] {one, two});
-            return da.hasData();
-        } catch (DatabaseReadException e) {
-            report(e, "hasRelation(int, int)");
-        }
-        return false;
-    }
 
     @Override
     public void save(Relation[] relations) {
@@ -208,10 +255,12 @@ public class CanarySource implements Datasource {
         for(Relation r : relations) {
             try {
                 RelationDataAccess da = new RelationDataAccess(r);
-                if(hasRelation(da.one, da.two)) {
+                Long key = pair(da.one, da.two);
+                if(knownRelations.contains(key)) {
                     Database.get().update(da, new String[] {"one", "two"}, new Object[] {da.one, da.two});
                 } else {
-                    Database.get().insert(da);
+                    insertUnlessExists(da, new String[] {"one", "two"}, new Object[] {da.one, da.two});
+                    knownRelations.add(key);
                 }
             } catch (DatabaseWriteException e) {
                 ex = e;
@@ -219,36 +268,81 @@ public class CanarySource implements Datasource {
         }
         if(ex != null) report(ex, "save(Relation[])");
     }
-    
-    private boolean hasLand(int x, int z) {
-        try {
-            LandDataAccess da = new LandDataAccess();
-            Database.get().load(da, new String[] {"x", "z"}, new Object[] {x, z});
-            return da.hasData();
-        } catch (DatabaseReadException e) {
-            report(e, "hasLand(int, int)");
-        }
-        return false;
-    }
 
     @Override
     public void save(Land land) {
-        try {
+        saveLands(Collections.singletonList(land));
+    }
+    
+    @Override
+    public void saveLands(Collection<Land> lands) {
+        // known rows are updated one by one without an existence check, then the rest are inserted
+        ArrayList<LandDataAccess> inserts = new ArrayList<LandDataAccess>();
+        DatabaseWriteException ex = null;
+        for(Land land : lands) {
             LandDataAccess da = new LandDataAccess(land);
-            if(hasLand(da.x, da.z)) {
+            if(!knownLand.contains(pair(da.x, da.z))) {
+                inserts.add(da);
+                continue;
+            }
+            try {
                 Database.get().update(da, new String[] {"x", "z"}, new Object[] {da.x, da.z});
-            } else {
-                Database.get().insert(da);
+            } catch (DatabaseWriteException e) {
+                ex = e;
             }
+        }
+        for(LandDataAccess da : inserts) {
+            try {
+                insertUnlessExists(da, new String[] {"x", "z"}, new Object[] {da.x, da.z});
+                knownLand.add(pair(da.x, da.z));
+            } catch (DatabaseWriteException e) {
+                ex = e;
+            }
+        }
+        if(ex != null) report(ex, "saveLands(Collection)");
+    }
+    
+    /**
+     * Inserts a row that isn't known to exist, falling back to an update if the insert is rejected (eg. the row was written outside of this session).
+     * Only tables with a PRIMARY or UNIQUE column reject the insert, others have to use insertUnlessExists.
+     */
+    private static void insertOrUpdate(DataAccess da, String[] fields, Object[] values) throws DatabaseWriteException {
+        try {
+            Database.get().insert(da);
         } catch (DatabaseWriteException e) {
-            report(e, "save(Land)");
+            Database.get().update(da, fields, values);
+        }
+    }
+    
+    /**
+     * Inserts a row that isn't known to exist into a table without a unique column, checking first so the row isn't duplicated.
+     */
+    private static void insertUnlessExists(DataAccess da, String[] fields, Object[] values) throws DatabaseWriteException {
+        DataAccess existing = da.getInstance();
+        try {
+            Database.get().load(existing, fields, values);
+        } catch (DatabaseReadException e) {
+            throw new DatabaseWriteException(e.getMessage());
+        }
+        if(existing.hasData()) {
+            Database.get().update(da, fields, values);
+        } else {
+            Database.get().insert(da);
         }
     }
+    
+    /**
+     * Packs two ints into a long, in order.
+     */
+    private static long pair(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
 
     @Override
     public void delete(Faction f) {
         try {
             Database.get().remove(new FactionDataAccess().getName(), new String[] {"id"}, new Object[] {f.getId()});
+            knownFactions.remove(f.getId());
         } catch (DatabaseWriteException e) {
             report(e, "delete(Faction)");
         }
@@ -256,17 +350,29 @@ public class CanarySource implements Datasource {
 
     @Override
     public void delete(Land l) {
-        try {
-            Database.get().remove(new LandDataAccess().getName(), new String[] {"x", "z"}, new Object[] {l.getX(), l.getZ()});
-        } catch (DatabaseWriteException e) {
-            report(e, "delete(Land)");
+        deleteLands(Collections.singletonList(l));
+    }
+    
+    @Override
+    public void deleteLands(Collection<Land> lands) {
+        String table = new LandDataAccess().getName();
+        DatabaseWriteException ex = null;
+        for(Land l : lands) {
+            try {
+                Database.get().remove(table, new String[] {"x", "z"}, new Object[] {l.getX(), l.getZ()});
+                knownLand.remove(pair(l.getX(), l.getZ()));
+            } catch (DatabaseWriteException e) {
+                ex = e;
+            }
         }
+        if(ex != null) report(ex, "deleteLands(Collection)");
     }
 
     @Override
     public void delete(Relation r) {
         try {
             Database.get().remove(new RelationDataAccess().getName(), new String[] {"one", "two"}, new Object[] {r.getOneId(), r.getTwoId()});
+            knownRelations.remove(pair(r.getOneId(), r.getTwoId()));
         } catch (DatabaseWriteException e) {
             report(e, "delete(Relation)");
         }
@@ -274,35 +380,114 @@ public class CanarySource implements Datasource {
 
     @Override
     public int getBalance(String player) {
-        return balances.getInt(player);
+        try {
+            BalanceDataAccess da = new BalanceDataAccess();
+            Database.get().load(da, new String[] {"player", "faction"}, new Object[] {player, -1});
+            if(da.hasData()) {
+                knownPlayerBalances.add(player);
+                return da.balance;
+            }
+        } catch (DatabaseReadException e) {
+            report(e, "getBalance(String)");
+        }
+        return 0;
     }
 
     @Override
     public int getBalance(int fID) {
-        return balances.getInt(Integer.toString(fID));
+        try {
+            BalanceDataAccess da = new BalanceDataAccess();
+            Database.get().load(da, new String[] {"player", "faction"}, new Object[] {"", fID});
+            if(da.hasData()) {
+                knownFactionBalances.add(fID);
+                return da.balance;
+            }
+        } catch (DatabaseReadException e) {
+            report(e, "getBalance(int)");
+        }
+        return 0;
     }
 
     @Override
     public void savePlayerBalances(HashMap<String, Integer> players) {
-        for(Entry<String, Integer>  e : players.entrySet()) {
-            balances.setInt(e.getKey(), e.getValue());
+        // known rows are updated one by one without an existence check, then the rest are inserted
+        ArrayList<BalanceDataAccess> inserts = new ArrayList<BalanceDataAccess>();
+        DatabaseWriteException ex = null;
+        for(Entry<String, Integer> e : players.entrySet()) {
+            BalanceDataAccess da = new BalanceDataAccess(e.getKey(), e.getValue());
+            if(!knownPlayerBalances.contains(da.player)) {
+                inserts.add(da);
+                continue;
+            }
+            try {
+                Database.get().update(da, new String[] {"player", "faction"}, new Object[] {da.player, -1});
+            } catch (DatabaseWriteException e1) {
+                ex = e1;
+            }
         }
-        try {
-            balances.save();
-        } catch (IOException e1) {
-            Utils.warning("Error writing balances.txt file: %s", e1.getMessage());
+        for(BalanceDataAccess da : inserts) {
+            try {
+                insertUnlessExists(da, new String[] {"player", "faction"}, new Object[] {da.player, -1});
+                knownPlayerBalances.add(da.player);
+            } catch (DatabaseWriteException e) {
+                ex = e;
+            }
         }
+        if(ex != null) report(ex, "savePlayerBalances(HashMap)");
     }
 
     @Override
     public void saveFactionBalances(HashMap<Integer, Integer> factions) {
-        for(Entry<Integer, Integer>  e : factions.entrySet()) {
-            balances.setInt(Integer.toString(e.getKey()), e.getValue());
+        // known rows are updated one by one without an existence check, then the rest are inserted
+        ArrayList<BalanceDataAccess> inserts = new ArrayList<BalanceDataAccess>();
+        DatabaseWriteException ex = null;
+        for(Entry<Integer, Integer> e : factions.entrySet()) {
+            BalanceDataAccess da = new BalanceDataAccess(e.getKey(), e.getValue());
+            if(!knownFactionBalances.contains(da.faction)) {
+                inserts.add(da);
+                continue;
+            }
+            try {
+                Database.get().update(da, new String[] {"player", "faction"}, new Object[] {"", da.faction});
+            } catch (DatabaseWriteException e1) {
+                ex = e1;
+            }
+        }
+        for(BalanceDataAccess da : inserts) {
+            try {
+                insertUnlessExists(da, new String[] {"player", "faction"}, new Object[] {"", da.faction});
+                knownFactionBalances.add(da.faction);
+            } catch (DatabaseWriteException e) {
+                ex = e;
+            }
+        }
+        if(ex != null) report(ex, "saveFactionBalances(HashMap)");
+    }
+    
+    /**
+     * Moves balances kept in files by older versions into the balances table, if it is still empty.
+     */
+    private void importBalances() {
+        File folder = new File(Config.FOLDER);
+        if(!BalanceLedger.exists(folder)) {
+            return;
         }
         try {
-            balances.save();
-        } catch (IOException e1) {
-            Utils.warning("Error writing balances.txt file: %s", e1.getMessage());
+            List<DataAccess> list = new ArrayList<DataAccess>();
+            Database.get().loadAll(new BalanceDataAccess(), list, new String[0], new Object[0]);
+            if(!list.isEmpty()) {
+                Utils.warning("Not importing balance files, the balances table already has rows");
+                return;
+            }
+            BalanceLedger ledger = new BalanceLedger(folder);
+            savePlayerBalances(new HashMap<String, Integer>(ledger.getPlayers()));
+            saveFactionBalances(new HashMap<Integer, Integer>(ledger.getFactions()));
+            ledger.markImported();
+            Utils.info("Imported %d player and %d faction balances into the database", ledger.getPlayers().size(), ledger.getFactions().size());
+        } catch (DatabaseReadException e) {
+            report(e, "importBalances()");
+        } catch (IOException e) {
+            Utils.warning("Error reading balances: %s", e.getMessage());
         }
     }
     
@@ -315,13 +500,4 @@ public class CanarySource implements Datasource {
         Utils.warning("Error writing to database: %s", e.getMessage());
         Utils.warning("This error from: %s%n", caller);
     }
-    
-    private static AdvancedPropertiesFile getProps(String name) {
-        try {
-            return new AdvancedPropertiesFile("config/gFactions/" + name);
-        } catch (IOException e) {
-            Utils.warning("Error reading balances.txt file: %s", e.getMessage());
-        }
-        return null;
-    }
 }
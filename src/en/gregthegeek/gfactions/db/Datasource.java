@@ -1,5 +1,6 @@
 package en.gregthegeek.gfactions.db;
 
+import java.util.Collection;
 import java.util.HashMap;
 
 import en.gregthegeek.gfactions.faction.CachedFaction;
@@ -37,6 +38,13 @@ public interface Datasource {
 	 */
 	public Land[] getAllLand();
 	
+	/**
+	 * Reads information for all relations.
+	 * 
+	 * @return Relation[]
+	 */
+	public Relation[] getAllRelations();
+	
 	/**
 	 * Reads information about a given relation.
 	 * 
@@ -65,6 +73,13 @@ public interface Datasource {
 	 */
 	public gPlayer getPlayer(String name);
 	
+	/**
+	 * Reads information for all players.
+	 * 
+	 * @return gPlayer[] Null if the players couldn't be read.
+	 */
+	public gPlayer[] getAllPlayers();
+	
 	/**
 	 * Closes all open resources used by the datasource.
 	 */
@@ -77,6 +92,13 @@ public interface Datasource {
 	 */
 	public void save(CachedFaction faction);
 	
+	/**
+	 * Saves the given factions to storage in one batch.
+	 * 
+	 * @param factions The CachedFactions to save.
+	 */
+	public void saveFactions(Collection<CachedFaction> factions);
+	
 	/**
 	 * Saves the given gPlayers to storage.
 	 * 
@@ -98,6 +120,13 @@ public interface Datasource {
 	 */
 	public void save(Land land);
 	
+	/**
+	 * Saves the given land chunks to storage in one batch.
+	 * 
+	 * @param lands The land to save.
+	 */
+	public void saveLands(Collection<Land> lands);
+	
 	/**
 	 * Deletes a faction from storage.
 	 * 
@@ -112,6 +141,13 @@ public interface Datasource {
 	 */
 	public void delete(Land l);
 	
+	/**
+	 * Deletes land parcels from storage in one batch.
+	 * 
+	 * @param lands The land to delete.
+	 */
+	public void deleteLands(Collection<Land> lands);
+	
 	/**
 	 * Deletes a relation from storage.
 	 * 
@@ -136,14 +172,14 @@ public interface Datasource {
 	public int getBalance(int fID);
 	
 	/**
-	 * Saves the players' balances to storage.
+	 * Saves the players' balances to storage. Players not in the map are left as they are.
 	 * 
 	 * @param players The players to save.
 	 */
 	public void savePlayerBalances(HashMap<String, Integer> players);
 	
 	/**
-	 * Saves the factions' balances to storage.
+	 * Saves the factions' balances to storage. Factions not in the map are left as they are.
 	 * 
 	 * @param factions The factions to save.
 	 */
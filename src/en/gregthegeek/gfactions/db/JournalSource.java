@@ -0,0 +1,802 @@
+package en.gregthegeek.gfactions.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import en.gregthegeek.gfactions.faction.CachedFaction;
+import en.gregthegeek.gfactions.faction.Faction;
+import en.gregthegeek.gfactions.land.Land;
+import en.gregthegeek.gfactions.player.gPlayer;
+import en.gregthegeek.gfactions.relation.Relation;
+import en.gregthegeek.util.Utils;
+
+/**
+ * Keeps all data in memory and persists it as an append-only journal of changes.
+ * Appends are buffered and synced to disk together by a background thread, so a change never waits on the disk.
+ * When the journal grows large, it is compacted into a snapshot. Startup reads the snapshot and replays the journal after it.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class JournalSource implements Datasource {
+	private static final int MAGIC = 0x67464A4E; // "gFJN"
+	private static final int VERSION = 1;
+	private static final String SNAPSHOT = "snapshot.dat";
+	private static final String OLD_SNAPSHOT = "snapshot.old";
+	private static final String JOURNAL_PREFIX = "journal-";
+	private static final String JOURNAL_EXT = ".log";
+	private static final long MIN_COMPACT_SIZE = 4 * 1024 * 1024;
+	
+	// record types
+	private static final byte END = 0;
+	private static final byte FACTION = 1;
+	private static final byte FACTION_DELETE = 2;
+	private static final byte PLAYER = 3;
+	private static final byte RELATION = 4;
+	private static final byte RELATION_DELETE = 5;
+	private static final byte LAND = 6;
+	private static final byte LAND_DELETE = 7;
+	private static final byte PLAYER_BALANCE = 8;
+	private static final byte FACTION_BALANCE = 9;
+	
+	private final File folder;
+	private final long syncInterval;
+	private final Object lock = new Object();
+	
+	// current state, guarded by lock
+	private final HashMap<Integer, FactionDataAccess> factions = new HashMap<Integer, FactionDataAccess>();
+	private final HashMap<String, PlayerDataAccess> players = new HashMap<String, PlayerDataAccess>(); // lowercase name -> player
+	private final HashMap<Long, RelationDataAccess> relations = new HashMap<Long, RelationDataAccess>(); // Relation.key(one, two) -> relation
+	private final HashMap<String, LandDataAccess> land = new HashMap<String, LandDataAccess>(); // world/dim/chunk key -> land
+	private final HashMap<String, Integer> playerBalances = new HashMap<String, Integer>();
+	private final HashMap<Integer, Integer> factionBalances = new HashMap<Integer, Integer>();
+	
+	// journal, guarded by lock
+	private long generation;
+	private FileOutputStream journalFile;
+	private DataOutputStream journal;
+	private long journalSize;
+	private long snapshotSize;
+	private boolean unsynced = false;
+	
+	private final Thread syncer;
+	private volatile boolean closed = false;
+	
+	/**
+	 * Loads the snapshot and journal from a folder and starts syncing new changes.
+	 * 
+	 * @param folder The folder holding the journal.
+	 * @param syncInterval The milliseconds between syncs to disk.
+	 * @throws IOException If the snapshot could not be read.
+	 */
+	public JournalSource(File folder, long syncInterval) throws IOException {
+		this.folder = folder;
+		this.syncInterval = Math.max(1, syncInterval);
+		folder.mkdirs();
+		long start = System.currentTimeMillis();
+		int replayed = replay();
+		openJournal(generation);
+		Utils.info("Loaded journal in %d ms (%d changes replayed after snapshot)", System.currentTimeMillis() - start, replayed);
+		
+		syncer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(!closed) {
+					try {
+						Thread.sleep(JournalSource.this.syncInterval);
+					} catch (InterruptedException e) {
+						// closing, sync one last time below
+					}
+					sync();
+					if(!closed && needsCompaction()) {
+						compact();
+					}
+				}
+			}
+		}, "gFactions-journal");
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+	
+	/**
+	 * Reads the snapshot and any journals written after it.
+	 * 
+	 * @return int The amount of journal records replayed.
+	 */
+	private int replay() throws IOException {
+		File snap = new File(folder, SNAPSHOT);
+		if(!snap.exists()) {
+			snap = new File(folder, OLD_SNAPSHOT); // crashed while replacing the snapshot
+		}
+		generation = 0;
+		if(snap.exists()) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(snap)));
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(snap + " is not a version " + VERSION + " gFactions snapshot");
+			}
+			generation = in.readLong();
+			while(apply(in)) {}
+			snapshotSize = snap.length();
+		}
+		
+		TreeMap<Long, File> journals = new TreeMap<Long, File>();
+		File[] files = folder.listFiles();
+		if(files != null) {
+			for(File f : files) {
+				String name = f.getName();
+				if(name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_EXT)) {
+					try {
+						journals.put(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_EXT.length())), f);
+					} catch (NumberFormatException e) {
+						// not ours
+					}
+				}
+			}
+		}
+		
+		int count = 0;
+		for(Entry<Long, File> e : journals.entrySet()) {
+			File f = e.getValue();
+			if(e.getKey() < generation) { // already in the snapshot
+				f.delete();
+				continue;
+			}
+			generation = e.getKey();
+			byte[] data = readFile(f);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			int good = 0;
+			try {
+				while(in.available() > 0 && apply(in)) {
+					good = data.length - in.available();
+					count++;
+				}
+			} catch (IOException ex) {
+				// a torn write from a crash, everything before it is fine
+				Utils.warning("Discarding %d bytes at the end of %s: %s", data.length - good, f.getName(), ex);
+				RandomAccessFile raf = new RandomAccessFile(f, "rw");
+				raf.setLength(good);
+				raf.close();
+			}
+		}
+		return count;
+	}
+	
+	private static byte[] readFile(File f) throws IOException {
+		byte[] data = new byte[(int) f.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+	
+	private File journalFile(long gen) {
+		return new File(folder, JOURNAL_PREFIX + gen + JOURNAL_EXT);
+	}
+	
+	private void openJournal(long gen) throws IOException {
+		File f = journalFile(gen);
+		journalFile = new FileOutputStream(f, true);
+		journal = new DataOutputStream(new BufferedOutputStream(journalFile));
+		journalSize = f.length();
+	}
+	
+	/**
+	 * Reads one record and applies it to the state.
+	 * 
+	 * @param in The stream to read from.
+	 * @return boolean False if the end marker was read.
+	 */
+	private boolean apply(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch(type) {
+		case END:
+			return false;
+		case FACTION:
+			FactionDataAccess f = new FactionDataAccess();
+			f.id = in.readInt();
+			f.name = in.readUTF();
+			f.desc = in.readUTF();
+			f.isOpen = in.readBoolean();
+			f.isPeaceful = in.readBoolean();
+			f.admin = in.readUTF();
+			f.home = in.readUTF();
+			f.mods = readList(in);
+			f.members = readList(in);
+			factions.put(f.id, f);
+			break;
+		case FACTION_DELETE:
+			factions.remove(in.readInt());
+			break;
+		case PLAYER:
+			PlayerDataAccess p = new PlayerDataAccess();
+			p.name = in.readUTF();
+			p.power = in.readInt();
+			p.bonusPower = in.readInt();
+			p.title = in.readUTF();
+			players.put(p.name.toLowerCase(), p);
+			break;
+		case RELATION:
+			RelationDataAccess r = new RelationDataAccess();
+			r.type = in.readByte();
+			r.one = in.readInt();
+			r.two = in.readInt();
+			relations.put(Relation.key(r.one, r.two), r);
+			break;
+		case RELATION_DELETE:
+			relations.remove(Relation.key(in.readInt(), in.readInt()));
+			break;
+		case LAND:
+			LandDataAccess l = new LandDataAccess();
+			l.world = in.readUTF();
+			l.dim = in.readInt();
+			l.x = in.readInt();
+			l.z = in.readInt();
+			l.faction = in.readInt();
+			l.owners = readList(in);
+			land.put(landKey(l.world, l.dim, l.x, l.z), l);
+			break;
+		case LAND_DELETE:
+			land.remove(landKey(in.readUTF(), in.readInt(), in.readInt(), in.readInt()));
+			break;
+		case PLAYER_BALANCE:
+			playerBalances.put(in.readUTF(), in.readInt());
+			break;
+		case FACTION_BALANCE:
+			factionBalances.put(in.readInt(), in.readInt());
+			break;
+		default:
+			throw new IOException("Unknown record type " + type);
+		}
+		return true;
+	}
+	
+	private static List<String> readList(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		ArrayList<String> rt = new ArrayList<String>(n);
+		for(int i=0; i<n; i++) {
+			rt.add(in.readUTF());
+		}
+		return rt;
+	}
+	
+	private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+		out.writeInt(list.size());
+		for(String s : list) {
+			out.writeUTF(s);
+		}
+	}
+	
+	private static String landKey(String world, int dim, int x, int z) {
+		return world + "/" + dim + "/" + Land.chunkKey(x, z);
+	}
+	
+	private static void writeFaction(DataOutputStream out, FactionDataAccess f) throws IOException {
+		out.writeByte(FACTION);
+		out.writeInt(f.id);
+		out.writeUTF(f.name);
+		out.writeUTF(f.desc);
+		out.writeBoolean(f.isOpen);
+		out.writeBoolean(f.isPeaceful);
+		out.writeUTF(f.admin);
+		out.writeUTF(f.home);
+		writeList(out, f.mods);
+		writeList(out, f.members);
+	}
+	
+	private static void writePlayer(DataOutputStream out, PlayerDataAccess p) throws IOException {
+		out.writeByte(PLAYER);
+		out.writeUTF(p.name);
+		out.writeInt(p.power);
+		out.writeInt(p.bonusPower);
+		out.writeUTF(p.title == null ? "" : p.title);
+	}
+	
+	private static void writeRelation(DataOutputStream out, RelationDataAccess r) throws IOException {
+		out.writeByte(RELATION);
+		out.writeByte(r.type);
+		out.writeInt(r.one);
+		out.writeInt(r.two);
+	}
+	
+	private static void writeLand(DataOutputStream out, LandDataAccess l) throws IOException {
+		out.writeByte(LAND);
+		out.writeUTF(l.world);
+		out.writeInt(l.dim);
+		out.writeInt(l.x);
+		out.writeInt(l.z);
+		out.writeInt(l.faction);
+		writeList(out, l.owners);
+	}
+	
+	/**
+	 * Appends a record to the journal. Must be called while holding the lock.
+	 * The record reaches the disk on the next sync.
+	 * 
+	 * @param record The bytes of the record.
+	 */
+	private void append(ByteArrayOutputStream record) {
+		try {
+			record.writeTo(journal);
+			journalSize += record.size();
+			unsynced = true;
+		} catch (IOException e) {
+			Utils.warning("Error writing to journal: %s", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Writes buffered records to the journal file and forces them to disk.
+	 */
+	private void sync() {
+		FileChannel channel;
+		synchronized(lock) {
+			if(!unsynced) {
+				return;
+			}
+			try {
+				journal.flush();
+			} catch (IOException e) {
+				Utils.warning("Error writing to journal: %s", e.getMessage());
+				return;
+			}
+			unsynced = false;
+			channel = journalFile.getChannel();
+		}
+		try {
+			channel.force(false); // outside the lock so changes can keep coming in meanwhile
+		} catch (IOException e) {
+			// the journal may have been rotated and closed, which forces it first
+		}
+	}
+	
+	private boolean needsCompaction() {
+		synchronized(lock) {
+			return journalSize > MIN_COMPACT_SIZE && journalSize > snapshotSize;
+		}
+	}
+	
+	/**
+	 * Writes the whole state to a new snapshot and starts a new journal after it.
+	 */
+	private void compact() {
+		byte[] snap;
+		long gen;
+		synchronized(lock) {
+			try {
+				journal.flush();
+				journalFile.getChannel().force(false);
+				journal.close();
+				gen = generation + 1;
+				openJournal(gen);
+				generation = gen;
+				unsynced = false;
+				snap = serialize(gen);
+			} catch (IOException e) {
+				Utils.warning("Error starting a new journal: %s", e.getMessage());
+				return;
+			}
+		}
+		try {
+			File tmp = new File(folder, SNAPSHOT + ".tmp");
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(snap);
+				out.getChannel().force(true);
+			} finally {
+				out.close();
+			}
+			File current = new File(folder, SNAPSHOT);
+			File old = new File(folder, OLD_SNAPSHOT);
+			old.delete();
+			if(current.exists() && !current.renameTo(old)) {
+				throw new IOException("Unable to move " + current);
+			}
+			if(!tmp.renameTo(current)) {
+				throw new IOException("Unable to move " + tmp);
+			}
+			old.delete();
+			for(long g = gen - 1; g >= 0 && journalFile(g).delete(); g--) {}
+			synchronized(lock) {
+				snapshotSize = snap.length;
+			}
+		} catch (IOException e) {
+			Utils.warning("Error writing journal snapshot, will replay the journal instead: %s", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Writes the whole state as a snapshot. Must be called while holding the lock.
+	 * 
+	 * @param gen The generation of the first journal after this snapshot.
+	 * @return byte[]
+	 */
+	private byte[] serialize(long gen) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, Math.max(snapshotSize, 1024)));
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(gen);
+		for(FactionDataAccess f : factions.values()) {
+			writeFaction(out, f);
+		}
+		for(PlayerDataAccess p : players.values()) {
+			writePlayer(out, p);
+		}
+		for(RelationDataAccess r : relations.values()) {
+			writeRelation(out, r);
+		}
+		for(LandDataAccess l : land.values()) {
+			writeLand(out, l);
+		}
+		for(Entry<String, Integer> e : playerBalances.entrySet()) {
+			out.writeByte(PLAYER_BALANCE);
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue());
+		}
+		for(Entry<Integer, Integer> e : factionBalances.entrySet()) {
+			out.writeByte(FACTION_BALANCE);
+			out.writeInt(e.getKey());
+			out.writeInt(e.getValue());
+		}
+		out.writeByte(END);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	@Override
+	public CachedFaction getFaction(int id) {
+		FactionDataAccess f;
+		synchronized(lock) {
+			f = factions.get(id);
+		}
+		return f == null ? null : f.toCachedFaction();
+	}
+	
+	@Override
+	public Faction[] getAllFactions() {
+		ArrayList<FactionDataAccess> list;
+		synchronized(lock) {
+			list = new ArrayList<FactionDataAccess>(factions.values());
+		}
+		Faction[] rt = new Faction[list.size()];
+		for(int i=0; i<rt.length; i++) {
+			rt[i] = list.get(i).toCachedFaction();
+		}
+		return rt;
+	}
+	
+	@Override
+	public Land[] getAllLand() {
+		synchronized(lock) {
+			Land[] rt = new Land[land.size()];
+			int i = 0;
+			for(LandDataAccess l : land.values()) {
+				rt[i++] = l.toLand();
+			}
+			return rt;
+		}
+	}
+	
+	@Override
+	public Relation[] getAllRelations() {
+		synchronized(lock) {
+			Relation[] rt = new Relation[relations.size()];
+			int i = 0;
+			for(RelationDataAccess r : relations.values()) {
+				rt[i++] = r.toRelation();
+			}
+			return rt;
+		}
+	}
+	
+	@Override
+	public Relation getRelation(Faction one, Faction two) {
+		RelationDataAccess r;
+		synchronized(lock) {
+			r = relations.get(Relation.key(one.getId(), two.getId()));
+		}
+		return r == null ? new Relation(Relation.Type.NEUTRAL, one, two) : r.toRelation();
+	}
+	
+	@Override
+	public Relation[] getRelationsWith(Faction f) {
+		int id = f.getId();
+		ArrayList<Relation> rt = new ArrayList<Relation>();
+		synchronized(lock) {
+			for(RelationDataAccess r : relations.values()) {
+				if(r.one == id || r.two == id) {
+					rt.add(r.toRelation());
+				}
+			}
+		}
+		return rt.toArray(new Relation[rt.size()]);
+	}
+	
+	@Override
+	public void fix() {
+	
+	}
+	
+	@Override
+	public gPlayer getPlayer(String name) {
+		PlayerDataAccess p;
+		synchronized(lock) {
+			p = players.get(name.toLowerCase());
+		}
+		return p == null ? null : p.toGPlayer();
+	}
+	
+	@Override
+	public gPlayer[] getAllPlayers() {
+		synchronized(lock) {
+			gPlayer[] rt = new gPlayer[players.size()];
+			int i = 0;
+			for(PlayerDataAccess p : players.values()) {
+				rt[i++] = p.toGPlayer();
+			}
+			return rt;
+		}
+	}
+	
+	/**
+	 * Stops syncing, writes a final snapshot, and closes the journal.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		syncer.interrupt();
+		try {
+			syncer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sync();
+		compact(); // so the next startup has nothing to replay
+		synchronized(lock) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				Utils.warning("Error closing journal: %s", e.getMessage());
+			}
+		}
+	}
+	
+	@Override
+	public void save(CachedFaction faction) {
+		FactionDataAccess f = new FactionDataAccess(faction);
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		try {
+			writeFaction(new DataOutputStream(record), f);
+		} catch (IOException e) {
+			throw new AssertionError(e); // in memory
+		}
+		synchronized(lock) {
+			factions.put(f.id, f);
+			append(record);
+		}
+	}
+	
+	@Override
+	public void saveFactions(Collection<CachedFaction> factions) {
+		for(CachedFaction f : factions) {
+			save(f);
+		}
+	}
+	
+	@Override
+	public void save(gPlayer[] players) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		PlayerDataAccess[] list = new PlayerDataAccess[players.length];
+		try {
+			for(int i=0; i<players.length; i++) {
+				list[i] = new PlayerDataAccess(players[i]);
+				writePlayer(out, list[i]);
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		synchronized(lock) {
+			for(PlayerDataAccess p : list) {
+				this.players.put(p.name.toLowerCase(), p);
+			}
+			append(record);
+		}
+	}
+	
+	@Override
+	public void save(Relation[] relations) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		RelationDataAccess[] list = new RelationDataAccess[relations.length];
+		try {
+			for(int i=0; i<relations.length; i++) {
+				list[i] = new RelationDataAccess(relations[i]);
+				writeRelation(out, list[i]);
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		synchronized(lock) {
+			for(RelationDataAccess r : list) {
+				this.relations.put(Relation.key(r.one, r.two), r);
+			}
+			append(record);
+		}
+	}
+	
+	@Override
+	public void save(Land l) {
+		saveLands(Arrays.asList(l));
+	}
+	
+	@Override
+	public void saveLands(Collection<Land> lands) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		ArrayList<LandDataAccess> list = new ArrayList<LandDataAccess>(lands.size());
+		try {
+			for(Land l : lands) {
+				LandDataAccess da = new LandDataAccess(l);
+				list.add(da);
+				writeLand(out, da);
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		synchronized(lock) {
+			for(LandDataAccess da : list) {
+				land.put(landKey(da.world, da.dim, da.x, da.z), da);
+			}
+			append(record);
+		}
+	}
+	
+	@Override
+	public void delete(Faction f) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		try {
+			out.writeByte(FACTION_DELETE);
+			out.writeInt(f.getId());
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		synchronized(lock) {
+			factions.remove(f.getId());
+			append(record);
+		}
+	}
+	
+	@Override
+	public void delete(Land l) {
+		deleteLands(Arrays.asList(l));
+	}
+	
+	@Override
+	public void deleteLands(Collection<Land> lands) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		try {
+			for(Land l : lands) {
+				out.writeByte(LAND_DELETE);
+				out.writeUTF(l.getWorld());
+				out.writeInt(l.getDimension());
+				out.writeInt(l.getX());
+				out.writeInt(l.getZ());
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		synchronized(lock) {
+			for(Land l : lands) {
+				land.remove(landKey(l.getWorld(), l.getDimension(), l.getX(), l.getZ()));
+			}
+			append(record);
+		}
+	}
+	
+	@Override
+	public void delete(Relation r) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		try {
+			out.writeByte(RELATION_DELETE);
+			out.writeInt(r.getOneId());
+			out.writeInt(r.getTwoId());
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		synchronized(lock) {
+			relations.remove(r.getKey());
+			append(record);
+		}
+	}
+	
+	@Override
+	public int getBalance(String player) {
+		synchronized(lock) {
+			Integer bal = playerBalances.get(player);
+			return bal == null ? 0 : bal;
+		}
+	}
+	
+	@Override
+	public int getBalance(int fID) {
+		synchronized(lock) {
+			Integer bal = factionBalances.get(fID);
+			return bal == null ? 0 : bal;
+		}
+	}
+	
+	/**
+	 * Only the balances that differ from the journal are written.
+	 */
+	@Override
+	public void savePlayerBalances(HashMap<String, Integer> players) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		synchronized(lock) {
+			try {
+				for(Entry<String, Integer> e : players.entrySet()) {
+					if(!e.getValue().equals(playerBalances.get(e.getKey()))) {
+						playerBalances.put(e.getKey(), e.getValue());
+						out.writeByte(PLAYER_BALANCE);
+						out.writeUTF(e.getKey());
+						out.writeInt(e.getValue());
+					}
+				}
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			if(record.size() > 0) {
+				append(record);
+			}
+		}
+	}
+	
+	/**
+	 * Only the balances that differ from the journal are written.
+	 */
+	@Override
+	public void saveFactionBalances(HashMap<Integer, Integer> factions) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		synchronized(lock) {
+			try {
+				for(Entry<Integer, Integer> e : factions.entrySet()) {
+					if(!e.getValue().equals(factionBalances.get(e.getKey()))) {
+						factionBalances.put(e.getKey(), e.getValue());
+						out.writeByte(FACTION_BALANCE);
+						out.writeInt(e.getKey());
+						out.writeInt(e.getValue());
+					}
+				}
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			if(record.size() > 0) {
+				append(record);
+			}
+		}
+	}
+}
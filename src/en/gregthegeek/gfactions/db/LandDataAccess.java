@@ -45,7 +45,7 @@ public class LandDataAccess extends DataAccess {
     }
     
     public Land toLand() {
-        return new Land(x, z, world, dim, owners);
+        return new Land(x, z, world, dim, faction, owners);
     }
 
     @Override
@@ -0,0 +1,526 @@
+package en.gregthegeek.gfactions.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import en.gregthegeek.gfactions.faction.CachedFaction;
+import en.gregthegeek.gfactions.faction.Faction;
+import en.gregthegeek.gfactions.land.Land;
+import en.gregthegeek.gfactions.player.gPlayer;
+import en.gregthegeek.gfactions.relation.Relation;
+import en.gregthegeek.util.Utils;
+
+/**
+ * Stores land in memory-mapped binary files and passes everything else to another datasource.
+ * There is one file per world and dimension, made of fixed-width records (chunk key, faction id, owner list offset).
+ * Owner lists are kept in a separate file next to it, since they are rare and of any length.
+ * A claim change is a single in-place write to the mapped file.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class MappedLandSource implements Datasource {
+	private static final String EXT = ".land";
+	private static final String OWNERS_EXT = ".owners";
+	private static final int MAGIC = 0x67464C44; // "gFLD"
+	private static final int VERSION = 1;
+	private static final int HEADER = 16; // magic, version, slot count, state
+	private static final int COMPACTING = 1; // state while the owners file is being replaced
+	private static final int RECORD = 16; // chunk key, faction id, owner list offset
+	private static final int MIN_SLOTS = 256;
+	
+	/**
+	 * The land file for a single world and dimension.
+	 */
+	private static class LandFile {
+		private final String world;
+		private final int dim;
+		private final File ownersFile;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private MappedByteBuffer map;
+		private RandomAccessFile owners;
+		private int count; // slots in use, including freed ones
+		private final HashMap<Long, Integer> slots = new HashMap<Long, Integer>(); // chunk key -> slot
+		private final ArrayDeque<Integer> free = new ArrayDeque<Integer>();
+		
+		private LandFile(File folder, String world, int dim) throws IOException {
+			this.world = world;
+			this.dim = dim;
+			String name = fileName(world, dim);
+			File file = new File(folder, name + EXT);
+			boolean exists = file.exists() && file.length() >= HEADER;
+			this.ownersFile = new File(folder, name + OWNERS_EXT);
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			if(exists) {
+				map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(raf.length(), HEADER + MIN_SLOTS * RECORD));
+				if(map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+					channel.close();
+					raf.close();
+					throw new IOException(String.format("%s is not a version %d land file", file, VERSION));
+				}
+				count = map.getInt(8);
+				if(map.getInt(12) == COMPACTING) {
+					recoverOwners();
+				}
+				clearSlots(count);
+			} else {
+				map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + MIN_SLOTS * RECORD);
+				map.putInt(0, MAGIC);
+				map.putInt(4, VERSION);
+				setCount(0);
+				clearSlots(0);
+			}
+			this.owners = new RandomAccessFile(ownersFile, "rw");
+		}
+		
+		private void setCount(int count) {
+			this.count = count;
+			map.putInt(8, count);
+		}
+		
+		private static int position(int slot) {
+			return HEADER + slot * RECORD;
+		}
+		
+		/**
+		 * Marks every slot from the given one to the end of the mapping as free, so a slot the count reaches before its record is written never loads as a claim.
+		 */
+		private void clearSlots(int from) {
+			for(int i=from; position(i + 1) <= map.capacity(); i++) {
+				map.putInt(position(i) + 8, -1);
+			}
+			map.force();
+		}
+		
+		/**
+		 * Reads every claim in this file. Freed slots are remembered for reuse.
+		 */
+		private List<Land> load() throws IOException {
+			ArrayList<Land> rt = new ArrayList<Land>(count);
+			ArrayList<Integer> used = new ArrayList<Integer>(count);
+			slots.clear();
+			free.clear();
+			for(int i=0; i<count; i++) {
+				int pos = position(i);
+				long key = map.getLong(pos);
+				int faction = map.getInt(pos + 8);
+				int offset = map.getInt(pos + 12);
+				if(faction == -1) {
+					free.add(i);
+					continue;
+				}
+				slots.put(key, i);
+				rt.add(new Land((int) (key >> 32), (int) key, world, dim, faction, readOwners(offset)));
+				used.add(i);
+			}
+			compactOwners(rt, used);
+			return rt;
+		}
+		
+		/**
+		 * Rewrites the owners file so that it only holds the lists of live claims, in slot order.
+		 * The offsets in the land file are only changed once the new owners file has replaced the old one.
+		 */
+		private void compactOwners(List<Land> lands, List<Integer> used) throws IOException {
+			File tmp = tmpOwnersFile();
+			int[] offsets = new int[lands.size()];
+			RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+			try {
+				out.setLength(0);
+				for(int i=0; i<lands.size(); i++) {
+					String[] list = lands.get(i).getOwners();
+					offsets[i] = -1;
+					if(list.length > 0) {
+						offsets[i] = (int) out.length();
+						writeOwners(out, list);
+					}
+				}
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			
+			setState(COMPACTING);
+			owners.close();
+			try {
+				Utils.replaceFile(tmp, ownersFile);
+			} catch (IOException e) { // the old owners file and offsets are untouched
+				tmp.delete();
+				owners = new RandomAccessFile(ownersFile, "rw");
+				setState(0);
+				throw e;
+			}
+			owners = new RandomAccessFile(ownersFile, "rw");
+			for(int i=0; i<offsets.length; i++) {
+				map.putInt(position(used.get(i)) + 12, offsets[i]);
+			}
+			map.force();
+			setState(0);
+		}
+		
+		/**
+		 * Finishes or undoes a compaction of the owners file that was interrupted.
+		 */
+		private void recoverOwners() throws IOException {
+			File tmp = tmpOwnersFile();
+			if(tmp.exists()) { // the old owners file was never replaced, so the offsets still point into it
+				File old = new File(ownersFile.getPath() + ".old");
+				if(!ownersFile.exists() && old.exists() && !old.renameTo(ownersFile)) {
+					throw new IOException("Unable to restore " + ownersFile);
+				}
+				tmp.delete();
+			} else { // the new owners file is in place, but the offsets may not have been written
+				RandomAccessFile in = new RandomAccessFile(ownersFile, "r");
+				try {
+					for(int i=0; i<count; i++) {
+						int pos = position(i);
+						if(map.getInt(pos + 8) != -1 && map.getInt(pos + 12) >= 0) { // lists were written in slot order
+							map.putInt(pos + 12, (int) in.getFilePointer());
+							int n = in.readInt();
+							for(int j=0; j<n; j++) {
+								in.readUTF();
+							}
+						}
+					}
+				} finally {
+					in.close();
+				}
+				map.force();
+			}
+			setState(0);
+			Utils.warning("Recovered from an interrupted compaction of %s", ownersFile);
+		}
+		
+		private File tmpOwnersFile() {
+			return new File(ownersFile.getPath() + ".tmp");
+		}
+		
+		private void setState(int state) {
+			map.putInt(12, state);
+			map.force();
+		}
+		
+		private List<String> readOwners(int offset) throws IOException {
+			if(offset < 0) {
+				return Collections.<String>emptyList();
+			}
+			owners.seek(offset);
+			int n = owners.readInt();
+			ArrayList<String> rt = new ArrayList<String>(n);
+			for(int i=0; i<n; i++) {
+				rt.add(owners.readUTF());
+			}
+			return rt;
+		}
+		
+		private static void writeOwners(RandomAccessFile out, String[] list) throws IOException {
+			out.seek(out.length());
+			out.writeInt(list.length);
+			for(String s : list) {
+				out.writeUTF(s);
+			}
+		}
+		
+		/**
+		 * Writes a claim in place, taking a free slot if it isn't in the file yet.
+		 */
+		private void write(Land l) throws IOException {
+			long key = l.getChunkKey();
+			Integer slot = slots.get(key);
+			int oldOffset = -1;
+			boolean grow = false;
+			if(slot == null) {
+				slot = free.poll();
+				if(slot == null) {
+					ensureCapacity(count + 1);
+					slot = count;
+					grow = true;
+				}
+				slots.put(key, slot);
+			} else {
+				oldOffset = map.getInt(position(slot) + 12);
+			}
+			
+			String[] list = l.getOwners();
+			int offset = -1;
+			if(list.length > 0) {
+				if(oldOffset >= 0 && Arrays.equals(readOwners(oldOffset).toArray(), list)) {
+					offset = oldOffset; // owners rarely change, don't append the same list again
+				} else {
+					offset = (int) owners.length();
+					writeOwners(owners, list);
+				}
+			}
+			
+			int pos = position(slot);
+			map.putLong(pos, key);
+			map.putInt(pos + 12, offset);
+			map.putInt(pos + 8, l.getClaimerId());
+			if(grow) { // only count the slot once its record is written
+				setCount(count + 1);
+			}
+		}
+		
+		/**
+		 * Marks a claim's slot as free.
+		 */
+		private void remove(Land l) {
+			Integer slot = slots.remove(l.getChunkKey());
+			if(slot != null) {
+				map.putInt(position(slot) + 8, -1);
+				free.add(slot);
+			}
+		}
+		
+		private void ensureCapacity(int slotCount) throws IOException {
+			long needed = position(slotCount);
+			if(needed > map.capacity()) {
+				map.force();
+				int slotsBefore = (map.capacity() - HEADER) / RECORD;
+				map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(needed, map.capacity() * 2L));
+				clearSlots(slotsBefore);
+			}
+		}
+		
+		private void force() {
+			map.force();
+		}
+		
+		private void close() throws IOException {
+			map.force();
+			channel.close();
+			raf.close();
+			owners.close();
+		}
+	}
+	
+	private final Datasource source;
+	private final File folder;
+	private final HashMap<String, LandFile> files = new HashMap<String, LandFile>(); // world/dim -> land file
+	
+	/**
+	 * Opens the land files in a folder. If there are none yet, land is imported from the other datasource.
+	 * 
+	 * @param source The datasource to use for everything but land.
+	 * @param folder The folder holding the land files.
+	 * @throws IOException If the land files could not be opened.
+	 */
+	public MappedLandSource(Datasource source, File folder) throws IOException {
+		this.source = source;
+		this.folder = folder;
+		folder.mkdirs();
+		File[] existing = folder.listFiles();
+		boolean found = false;
+		if(existing != null) {
+			for(File f : existing) {
+				String name = f.getName();
+				if(name.endsWith(EXT)) {
+					name = name.substring(0, name.length() - EXT.length());
+					int dot = name.lastIndexOf('.');
+					try {
+						String world = URLDecoder.decode(name.substring(0, dot), "UTF-8");
+						int dim = Integer.parseInt(name.substring(dot + 1));
+						getFile(world, dim);
+						found = true;
+					} catch (RuntimeException e) {
+						Utils.warning("Skipping unrecognised land file %s", f.getName());
+					}
+				}
+			}
+		}
+		if(!found) {
+			Land[] imported = source.getAllLand();
+			for(Land l : imported) {
+				if(l.isClaimed()) {
+					getFile(l.getWorld(), l.getDimension()).write(l);
+				}
+			}
+			for(LandFile lf : files.values()) {
+				lf.force();
+			}
+			if(imported.length > 0) {
+				Utils.info("Imported %d land claims into %s", imported.length, folder);
+			}
+		}
+	}
+	
+	private static String fileName(String world, int dim) {
+		try {
+			return String.format("%s.%d", URLEncoder.encode(world, "UTF-8"), dim);
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e); // UTF-8 is always supported
+		}
+	}
+	
+	private LandFile getFile(String world, int dim) throws IOException {
+		String key = world + "/" + dim;
+		LandFile lf = files.get(key);
+		if(lf == null) {
+			lf = new LandFile(folder, world, dim);
+			files.put(key, lf);
+		}
+		return lf;
+	}
+	
+	@Override
+	public synchronized Land[] getAllLand() {
+		ArrayList<Land> rt = new ArrayList<Land>();
+		for(LandFile lf : files.values()) {
+			try {
+				rt.addAll(lf.load());
+			} catch (IOException e) {
+				Utils.warning("Error reading land for %s/%d: %s", lf.world, lf.dim, e.getMessage());
+			}
+		}
+		return rt.toArray(new Land[rt.size()]);
+	}
+	
+	@Override
+	public synchronized void save(Land land) {
+		try {
+			getFile(land.getWorld(), land.getDimension()).write(land);
+		} catch (IOException e) {
+			Utils.warning("Error writing land at %d,%d in %s/%d: %s", land.getX(), land.getZ(), land.getWorld(), land.getDimension(), e.getMessage());
+		}
+	}
+	
+	@Override
+	public synchronized void saveLands(Collection<Land> lands) {
+		for(Land l : lands) {
+			save(l);
+		}
+	}
+	
+	@Override
+	public synchronized void delete(Land l) {
+		LandFile lf = files.get(l.getWorld() + "/" + l.getDimension());
+		if(lf != null) {
+			lf.remove(l);
+		}
+	}
+	
+	@Override
+	public synchronized void deleteLands(Collection<Land> lands) {
+		for(Land l : lands) {
+			delete(l);
+		}
+	}
+	
+	@Override
+	public synchronized void close() {
+		for(LandFile lf : files.values()) {
+			try {
+				lf.close();
+			} catch (IOException e) {
+				Utils.warning("Error closing land file for %s/%d: %s", lf.world, lf.dim, e.getMessage());
+			}
+		}
+		files.clear();
+		source.close();
+	}
+	
+	@Override
+	public CachedFaction getFaction(int id) {
+		return source.getFaction(id);
+	}
+	
+	@Override
+	public Faction[] getAllFactions() {
+		return source.getAllFactions();
+	}
+	
+	@Override
+	public Relation[] getAllRelations() {
+		return source.getAllRelations();
+	}
+	
+	@Override
+	public Relation getRelation(Faction one, Faction two) {
+		return source.getRelation(one, two);
+	}
+	
+	@Override
+	public Relation[] getRelationsWith(Faction f) {
+		return source.getRelationsWith(f);
+	}
+	
+	@Override
+	public void fix() {
+		source.fix();
+	}
+	
+	@Override
+	public gPlayer getPlayer(String name) {
+		return source.getPlayer(name);
+	}
+	
+	@Override
+	public gPlayer[] getAllPlayers() {
+		return source.getAllPlayers();
+	}
+	
+	@Override
+	public void save(CachedFaction faction) {
+		source.save(faction);
+	}
+	
+	@Override
+	public void saveFactions(Collection<CachedFaction> factions) {
+		source.saveFactions(factions);
+	}
+	
+	@Override
+	public void save(gPlayer[] players) {
+		source.save(players);
+	}
+	
+	@Override
+	public void save(Relation[] relations) {
+		source.save(relations);
+	}
+	
+	@Override
+	public void delete(Faction f) {
+		source.delete(f);
+	}
+	
+	@Override
+	public void delete(Relation r) {
+		source.delete(r);
+	}
+	
+	@Override
+	public int getBalance(String player) {
+		return source.getBalance(player);
+	}
+	
+	@Override
+	public int getBalance(int fID) {
+		return source.getBalance(fID);
+	}
+	
+	@Override
+	public void savePlayerBalances(HashMap<String, Integer> players) {
+		source.savePlayerBalances(players);
+	}
+	
+	@Override
+	public void saveFactionBalances(HashMap<Integer, Integer> factions) {
+		source.saveFactionBalances(factions);
+	}
+}
@@ -1,5 +1,6 @@
 package en.gregthegeek.gfactions.db;
 
+import java.util.Collection;
 import java.util.HashMap;
 
 import en.gregthegeek.gfactions.faction.CachedFaction;
@@ -25,6 +26,11 @@ public class NullSource implements Datasource {
         return new Land[0];
     }
 
+    @Override
+    public Relation[] getAllRelations() {
+        return new Relation[0];
+    }
+
     @Override
     public Relation getRelation(Faction one, Faction two) {
         return new Relation(Relation.Type.NEUTRAL, one, two);
@@ -45,6 +51,11 @@ public class NullSource implements Datasource {
         return null;
     }
 
+    @Override
+    public gPlayer[] getAllPlayers() {
+        return new gPlayer[0];
+    }
+
     @Override
     public void close() {
         
@@ -55,6 +66,11 @@ public class NullSource implements Datasource {
         
     }
 
+    @Override
+    public void saveFactions(Collection<CachedFaction> factions) {
+        
+    }
+
     @Override
     public void save(gPlayer[] players) {
         
@@ -70,6 +86,11 @@ public class NullSource implements Datasource {
         
     }
 
+    @Override
+    public void saveLands(Collection<Land> lands) {
+        
+    }
+
     @Override
     public void delete(Faction f) {
         
@@ -80,6 +101,11 @@ public class NullSource implements Datasource {
         
     }
 
+    @Override
+    public void deleteLands(Collection<Land> lands) {
+        
+    }
+
     @Override
     public void delete(Relation r) {
         
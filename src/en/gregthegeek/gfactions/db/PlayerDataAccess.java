@@ -27,16 +27,13 @@ public class PlayerDataAccess extends DataAccess {
     public PlayerDataAccess(gPlayer gp) {
         super(CanarySource.PREFIX, NAME);
         name = gp.getName();
-        power = gp.getPower();
+        power = gp.getRawPower();
         bonusPower = gp.bonusPower;
         title = gp.getTitle();
     }
     
     public gPlayer toGPlayer() {
-        gPlayer rt = new gPlayer(name, power);
-        rt.bonusPower = bonusPower;
-        rt.setTitle(title);
-        return rt;
+        return new gPlayer(name, power, bonusPower, title);
     }
 
     @Override
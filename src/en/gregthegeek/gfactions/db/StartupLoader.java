@@ -0,0 +1,176 @@
+package en.gregthegeek.gfactions.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import en.gregthegeek.gfactions.faction.Faction;
+import en.gregthegeek.gfactions.land.Land;
+import en.gregthegeek.gfactions.player.gPlayer;
+import en.gregthegeek.gfactions.relation.Relation;
+import en.gregthegeek.util.Utils;
+
+/**
+ * Reads every table from a datasource at once when the plugin starts, so nothing has to be loaded while the server is running.
+ * Each table is read on its own thread, and the amount of rows and time taken are logged.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class StartupLoader {
+	private static final int THREADS = 4; // one per table
+	
+	/**
+	 * Reads one table and remembers how long it took.
+	 */
+	private abstract static class Table implements Callable<Object[]> {
+		private final String name;
+		private int rows = -1; // -1 until read successfully
+		private long millis = 0;
+		
+		private Table(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public final Object[] call() {
+			long start = System.nanoTime();
+			Object[] rt = read();
+			millis = (System.nanoTime() - start) / 1000000;
+			if(rt != null) {
+				rows = rt.length;
+			}
+			return rt;
+		}
+		
+		protected abstract Object[] read();
+	}
+	
+	private final Datasource source;
+	private Faction[] factions = new Faction[0];
+	private Land[] land = new Land[0];
+	private Relation[] relations = new Relation[0];
+	private gPlayer[] players = null;
+	
+	/**
+	 * @param source The datasource to read from. It must allow its tables to be read from several threads at once.
+	 */
+	public StartupLoader(Datasource source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Reads every table, waiting until all of them are done.
+	 */
+	public void load() {
+		Table factionTable = new Table("factions") {
+			@Override
+			protected Faction[] read() {
+				return source.getAllFactions();
+			}
+		};
+		Table landTable = new Table("land") {
+			@Override
+			protected Land[] read() {
+				return source.getAllLand();
+			}
+		};
+		Table relationTable = new Table("relations") {
+			@Override
+			protected Relation[] read() {
+				return source.getAllRelations();
+			}
+		};
+		Table playerTable = new Table("players") {
+			@Override
+			protected gPlayer[] read() {
+				return source.getAllPlayers();
+			}
+		};
+		
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private int count = 0;
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gFactions-loader-" + ++count);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Table> tables = new ArrayList<Table>();
+			tables.add(factionTable);
+			tables.add(landTable);
+			tables.add(relationTable);
+			tables.add(playerTable);
+			List<Future<Object[]>> results = new ArrayList<Future<Object[]>>();
+			for(Table t : tables) {
+				results.add(pool.submit(t));
+			}
+			factions = (Faction[]) get(results.get(0), factionTable, factions);
+			land = (Land[]) get(results.get(1), landTable, land);
+			relations = (Relation[]) get(results.get(2), relationTable, relations);
+			players = (gPlayer[]) get(results.get(3), playerTable, players);
+			for(Table t : tables) {
+				if(t.rows >= 0) { // failures were already reported
+					Utils.info("Loaded %d %s in %d ms", t.rows, t.name, t.millis);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		Utils.info("Startup load finished in %d ms", (System.nanoTime() - start) / 1000000);
+	}
+	
+	/**
+	 * Waits for a table to be read.
+	 * 
+	 * @param result The pending read.
+	 * @param t The table being read.
+	 * @param fallback What to return if the read failed.
+	 * @return Object[]
+	 */
+	private static Object[] get(Future<Object[]> result, Table t, Object[] fallback) {
+		try {
+			Object[] rt = result.get();
+			if(rt != null) {
+				return rt;
+			}
+			Utils.warning("Unable to load %s", t.name);
+		} catch (ExecutionException e) {
+			Utils.warning("Error loading %s: %s", t.name, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Utils.warning("Interrupted while loading %s", t.name);
+		}
+		return fallback;
+	}
+	
+	public Faction[] getFactions() {
+		return factions;
+	}
+	
+	public Land[] getLand() {
+		return land;
+	}
+	
+	public Relation[] getRelations() {
+		return relations;
+	}
+	
+	/**
+	 * Returns every player, or null if they couldn't be read and have to be loaded as they are needed.
+	 * 
+	 * @return gPlayer[]
+	 */
+	public gPlayer[] getPlayers() {
+		return players;
+	}
+}
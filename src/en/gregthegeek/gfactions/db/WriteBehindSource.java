@@ -0,0 +1,488 @@
+package en.gregthegeek.gfactions.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import en.gregthegeek.gfactions.faction.CachedFaction;
+import en.gregthegeek.gfactions.faction.Faction;
+import en.gregthegeek.gfactions.land.Land;
+import en.gregthegeek.gfactions.player.gPlayer;
+import en.gregthegeek.gfactions.relation.Relation;
+import en.gregthegeek.util.Utils;
+
+/**
+ * Wraps another datasource and performs its writes on a background thread.
+ * Repeated writes to the same row are coalesced, so only the latest one is performed, and queued writes are handed to the datasource in batches.
+ * Reads are passed straight through to the wrapped datasource.
+ * 
+ * Entities are copied when the write is queued, so the writer never reads objects the server thread is still changing.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class WriteBehindSource implements Datasource {
+	private enum Kind {
+		SAVE_FACTION,
+		DELETE_FACTION,
+		SAVE_PLAYER,
+		SAVE_RELATION,
+		DELETE_RELATION,
+		SAVE_LAND,
+		DELETE_LAND,
+		PLAYER_BALANCES,
+		FACTION_BALANCES;
+	}
+	
+	private static class Write {
+		private final Kind kind;
+		private final Object target; // a copy taken when queued for saves, the entity itself for deletes
+		
+		private Write(Kind kind, Object target) {
+			this.kind = kind;
+			this.target = target;
+		}
+	}
+	
+	private final Datasource source;
+	private final int capacity;
+	private final LinkedHashMap<Object, Write> pending = new LinkedHashMap<Object, Write>(); // row key -> latest write, oldest first
+	private HashMap<Object, Write> inFlight = new HashMap<Object, Write>(); // row key -> write in the batch being performed, guarded by pending
+	private final Thread writer;
+	private boolean writing = false;
+	private boolean closed = false;
+	private boolean stopped = false; // the writer has finished and takes no more writes
+	
+	// metrics, guarded by pending
+	private long queued = 0;
+	private long coalesced = 0;
+	private long written = 0;
+	private long failed = 0;
+	private long stalls = 0;
+	private long batches = 0;
+	private int highWater = 0;
+	
+	/**
+	 * Starts the background writer.
+	 * 
+	 * @param source The datasource to write to.
+	 * @param capacity The maximum amount of rows waiting to be written. When full, callers wait for the writer to catch up.
+	 */
+	public WriteBehindSource(Datasource source, int capacity) {
+		this.source = source;
+		this.capacity = Math.max(1, capacity);
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(writeBatch()) {}
+			}
+		}, "gFactions-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Queues a write, replacing any write still waiting for the same row.
+	 * Waits for space if the queue is full.
+	 * 
+	 * @param key Identifies the row being written.
+	 * @param kind What to do with the row.
+	 * @param target The object to write.
+	 */
+	private void submit(Object key, Kind kind, Object target) {
+		Write write = new Write(kind, target);
+		synchronized(pending) {
+			if(stopped) {
+				performNow(write);
+				return;
+			}
+			queued++;
+			if(pending.remove(key) != null) {
+				coalesced++;
+			} else if(pending.size() >= capacity) {
+				stalls++;
+				while(pending.size() >= capacity && !closed) {
+					try {
+						pending.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				if(stopped) { // closed while waiting, nothing would write it
+					performNow(write);
+					return;
+				}
+			}
+			pending.put(key, write);
+			highWater = Math.max(highWater, pending.size());
+			pending.notifyAll();
+		}
+	}
+	
+	/**
+	 * Performs a write on the calling thread, for when there is no writer left to do it.
+	 * 
+	 * @param write The write to perform.
+	 */
+	private void performNow(Write write) {
+		ArrayList<Write> single = new ArrayList<Write>(1);
+		single.add(write);
+		perform(single);
+	}
+	
+	/**
+	 * Waits for writes to be queued, then performs all of them.
+	 * 
+	 * @return boolean False once closed and everything is written.
+	 */
+	private boolean writeBatch() {
+		ArrayList<Write> batch;
+		synchronized(pending) {
+			while(pending.isEmpty()) {
+				if(closed) {
+					stopped = true;
+					return false;
+				}
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					// closing interrupts us, check again
+				}
+			}
+			batch = new ArrayList<Write>(pending.values());
+			inFlight = new HashMap<Object, Write>(pending);
+			pending.clear();
+			writing = true;
+			pending.notifyAll();
+		}
+		int bad = perform(batch);
+		synchronized(pending) {
+			written += batch.size() - bad;
+			failed += bad;
+			batches++;
+			inFlight = new HashMap<Object, Write>();
+			writing = false;
+			pending.notifyAll();
+		}
+		return true;
+	}
+	
+	/**
+	 * Groups writes by kind and hands each group to the datasource at once.
+	 * Each row appears at most once, so the order between groups does not matter.
+	 * 
+	 * @param batch The writes to perform.
+	 * @return int The amount of writes that failed.
+	 */
+	@SuppressWarnings("unchecked")
+	private int perform(ArrayList<Write> batch) {
+		ArrayList<CachedFaction> factions = new ArrayList<CachedFaction>();
+		ArrayList<Faction> deadFactions = new ArrayList<Faction>();
+		ArrayList<gPlayer> players = new ArrayList<gPlayer>();
+		ArrayList<Relation> relations = new ArrayList<Relation>();
+		ArrayList<Relation> deadRelations = new ArrayList<Relation>();
+		ArrayList<Land> lands = new ArrayList<Land>();
+		ArrayList<Land> deadLands = new ArrayList<Land>();
+		HashMap<String, Integer> playerBalances = new HashMap<String, Integer>(); // each balance write holds one account
+		HashMap<Integer, Integer> factionBalances = new HashMap<Integer, Integer>();
+		for(Write w : batch) {
+			switch(w.kind) {
+			case SAVE_FACTION:
+				factions.add(((FactionDataAccess) w.target).toCachedFaction());
+				break;
+			case DELETE_FACTION:
+				deadFactions.add((Faction) w.target);
+				break;
+			case SAVE_PLAYER:
+				players.add(((PlayerDataAccess) w.target).toGPlayer());
+				break;
+			case SAVE_RELATION:
+				relations.add(((RelationDataAccess) w.target).toRelation());
+				break;
+			case DELETE_RELATION:
+				deadRelations.add((Relation) w.target);
+				break;
+			case SAVE_LAND:
+				lands.add(((LandDataAccess) w.target).toLand());
+				break;
+			case DELETE_LAND:
+				deadLands.add((Land) w.target);
+				break;
+			case PLAYER_BALANCES:
+				playerBalances.putAll((HashMap<String, Integer>) w.target);
+				break;
+			case FACTION_BALANCES:
+				factionBalances.putAll((HashMap<Integer, Integer>) w.target);
+				break;
+			}
+		}
+		
+		int bad = 0;
+		try {
+			for(Faction f : deadFactions) {
+				source.delete(f);
+			}
+		} catch (RuntimeException e) {
+			bad += fail(e, deadFactions);
+		}
+		try {
+			if(!factions.isEmpty()) source.saveFactions(factions);
+		} catch (RuntimeException e) {
+			bad += fail(e, factions);
+		}
+		try {
+			if(!players.isEmpty()) source.save(players.toArray(new gPlayer[players.size()]));
+		} catch (RuntimeException e) {
+			bad += fail(e, players);
+		}
+		try {
+			for(Relation r : deadRelations) {
+				source.delete(r);
+			}
+		} catch (RuntimeException e) {
+			bad += fail(e, deadRelations);
+		}
+		try {
+			if(!relations.isEmpty()) source.save(relations.toArray(new Relation[relations.size()]));
+		} catch (RuntimeException e) {
+			bad += fail(e, relations);
+		}
+		try {
+			if(!deadLands.isEmpty()) source.deleteLands(deadLands);
+		} catch (RuntimeException e) {
+			bad += fail(e, deadLands);
+		}
+		try {
+			if(!lands.isEmpty()) source.saveLands(lands);
+		} catch (RuntimeException e) {
+			bad += fail(e, lands);
+		}
+		try {
+			if(!playerBalances.isEmpty()) source.savePlayerBalances(playerBalances);
+		} catch (RuntimeException e) {
+			bad += fail(e, playerBalances.keySet());
+		}
+		try {
+			if(!factionBalances.isEmpty()) source.saveFactionBalances(factionBalances);
+		} catch (RuntimeException e) {
+			bad += fail(e, factionBalances.keySet());
+		}
+		return bad;
+	}
+	
+	private static int fail(RuntimeException e, Collection<?> group) {
+		Utils.warning("Error writing %d rows to datasource: %s", group.size(), e);
+		return group.size();
+	}
+	
+	/**
+	 * Blocks until every queued write has been performed.
+	 */
+	public void drain() {
+		synchronized(pending) {
+			while((!pending.isEmpty() || writing) && writer.isAlive()) {
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the amount of rows currently waiting to be written.
+	 * 
+	 * @return int
+	 */
+	public int getQueueSize() {
+		synchronized(pending) {
+			return pending.size();
+		}
+	}
+	
+	/**
+	 * Returns a summary of the writer's activity.
+	 * 
+	 * @return String
+	 */
+	public String getStats() {
+		synchronized(pending) {
+			return String.format("queued=%d, coalesced=%d, written=%d, failed=%d, batches=%d, waiting=%d, highwater=%d/%d, stalls=%d", queued, coalesced, written, failed, batches, pending.size(), highWater, capacity, stalls);
+		}
+	}
+	
+	/**
+	 * Returns a faction, including changes that haven't been written yet.
+	 */
+	@Override
+	public CachedFaction getFaction(int id) {
+		String key = "faction:" + id;
+		synchronized(pending) {
+			Write w = pending.get(key);
+			if(w == null) { // the batch being written may not have reached the datasource yet
+				w = inFlight.get(key);
+			}
+			if(w != null) {
+				return w.kind == Kind.SAVE_FACTION ? ((FactionDataAccess) w.target).toCachedFaction() : null;
+			}
+		}
+		return source.getFaction(id);
+	}
+	
+	@Override
+	public Faction[] getAllFactions() {
+		return source.getAllFactions();
+	}
+	
+	@Override
+	public Land[] getAllLand() {
+		return source.getAllLand();
+	}
+	
+	@Override
+	public Relation[] getAllRelations() {
+		return source.getAllRelations();
+	}
+	
+	@Override
+	public Relation getRelation(Faction one, Faction two) {
+		return source.getRelation(one, two);
+	}
+	
+	@Override
+	public Relation[] getRelationsWith(Faction f) {
+		return source.getRelationsWith(f);
+	}
+	
+	@Override
+	public void fix() {
+		drain();
+		source.fix();
+	}
+	
+	@Override
+	public gPlayer getPlayer(String name) {
+		return source.getPlayer(name);
+	}
+	
+	@Override
+	public gPlayer[] getAllPlayers() {
+		return source.getAllPlayers();
+	}
+	
+	/**
+	 * Writes everything still queued, stops the writer, and closes the wrapped datasource.
+	 */
+	@Override
+	public void close() {
+		synchronized(pending) {
+			closed = true;
+			pending.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Utils.info("gFactions writer stopped: %s", getStats());
+		source.close();
+	}
+	
+	@Override
+	public void save(CachedFaction faction) {
+		submit("faction:" + faction.getId(), Kind.SAVE_FACTION, new FactionDataAccess(faction));
+	}
+	
+	@Override
+	public void saveFactions(Collection<CachedFaction> factions) {
+		for(CachedFaction faction : factions) {
+			save(faction);
+		}
+	}
+	
+	@Override
+	public void save(gPlayer[] players) {
+		for(gPlayer gp : players) {
+			submit("player:" + gp.getName().toLowerCase(), Kind.SAVE_PLAYER, new PlayerDataAccess(gp));
+		}
+	}
+	
+	@Override
+	public void save(Relation[] relations) {
+		for(Relation r : relations) {
+			submit("relation:" + r.getKey(), Kind.SAVE_RELATION, new RelationDataAccess(r));
+		}
+	}
+	
+	@Override
+	public void save(Land land) {
+		submit(landKey(land), Kind.SAVE_LAND, new LandDataAccess(land));
+	}
+	
+	@Override
+	public void saveLands(Collection<Land> lands) {
+		for(Land l : lands) {
+			save(l);
+		}
+	}
+	
+	@Override
+	public void delete(Faction f) {
+		submit("faction:" + f.getId(), Kind.DELETE_FACTION, f);
+	}
+	
+	@Override
+	public void delete(Land l) {
+		submit(landKey(l), Kind.DELETE_LAND, l);
+	}
+	
+	@Override
+	public void deleteLands(Collection<Land> lands) {
+		for(Land l : lands) {
+			delete(l);
+		}
+	}
+	
+	@Override
+	public void delete(Relation r) {
+		submit("relation:" + r.getKey(), Kind.DELETE_RELATION, r);
+	}
+	
+	private static String landKey(Land l) {
+		return String.format("land:%s:%d:%d", l.getWorld(), l.getDimension(), l.getChunkKey());
+	}
+	
+	@Override
+	public int getBalance(String player) {
+		return source.getBalance(player);
+	}
+	
+	@Override
+	public int getBalance(int fID) {
+		return source.getBalance(fID);
+	}
+	
+	@Override
+	public void savePlayerBalances(HashMap<String, Integer> players) {
+		// one write per account, so a later save of other accounts doesn't replace this one
+		for(Entry<String, Integer> e : players.entrySet()) {
+			HashMap<String, Integer> single = new HashMap<String, Integer>(1);
+			single.put(e.getKey(), e.getValue());
+			submit("balance:player:" + e.getKey(), Kind.PLAYER_BALANCES, single);
+		}
+	}
+	
+	@Override
+	public void saveFactionBalances(HashMap<Integer, Integer> factions) {
+		for(Entry<Integer, Integer> e : factions.entrySet()) {
+			HashMap<Integer, Integer> single = new HashMap<Integer, Integer>(1);
+			single.put(e.getKey(), e.getValue());
+			submit("balance:faction:" + e.getKey(), Kind.FACTION_BALANCES, single);
+		}
+	}
+}
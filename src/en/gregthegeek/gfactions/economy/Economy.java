@@ -57,7 +57,9 @@ public interface Economy {
 	public int getBalance(Faction fac);
 	
 	/**
-	 * Saves the economy files.
+	 * Saves the balances that changed since the last save.
+	 * 
+	 * @return int The amount of accounts written.
 	 */
-	public void save();
+	public int save();
 }
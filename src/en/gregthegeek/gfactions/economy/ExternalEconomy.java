@@ -46,8 +46,8 @@ public class ExternalEconomy implements Economy {
 	}
 
 	@Override
-	public void save() {
+	public int save() {
 		// TODO Auto-generated method stub
-		
+		return 0;
 	}
 }
@@ -39,7 +39,7 @@ public class InactiveEconomy implements Economy {
 	}
 
 	@Override
-	public void save() {
-		
+	public int save() {
+		return 0;
 	}
 }
@@ -1,6 +1,7 @@
 package en.gregthegeek.gfactions.economy;
 
 import java.util.HashMap;
+import java.util.HashSet;
 
 import en.gregthegeek.gfactions.db.Datasource;
 import en.gregthegeek.gfactions.faction.Faction;
@@ -15,6 +16,8 @@ import en.gregthegeek.util.Utils;
 public class IntegratedEconomy implements Economy {
 	private final HashMap<String, Integer> players = new HashMap<String, Integer>(); // player name -> balance
 	private final HashMap<Integer, Integer> factions = new HashMap<Integer, Integer>(); // faction id -> balance
+	private final HashSet<String> dirtyPlayers = new HashSet<String>(); // changed since the last save
+	private final HashSet<Integer> dirtyFactions = new HashSet<Integer>();
 
 	@Override
 	public void initPlayer(String player) {
@@ -37,7 +40,11 @@ public class IntegratedEconomy implements Economy {
 		if(newAmt >= 0) {
 			players.put(player, newAmt);
 			if(Utils.plugin.getConfig().getSaveInterval() < 0) {
-				Utils.plugin.getDataSource().savePlayerBalances(players);
+				HashMap<String, Integer> changed = new HashMap<String, Integer>(1);
+				changed.put(player, newAmt);
+				Utils.plugin.getDataSource().savePlayerBalances(changed);
+			} else {
+				dirtyPlayers.add(player);
 			}
 			return true;
 		}
@@ -58,7 +65,11 @@ public class IntegratedEconomy implements Economy {
 		if(newAmt >= 0) {
 			factions.put(id, newAmt);
 			if(Utils.plugin.getConfig().getSaveInterval() < 0) {
-				Utils.plugin.getDataSource().saveFactionBalances(factions);
+				HashMap<Integer, Integer> changed = new HashMap<Integer, Integer>(1);
+				changed.put(id, newAmt);
+				Utils.plugin.getDataSource().saveFactionBalances(changed);
+			} else {
+				dirtyFactions.add(id);
 			}
 			return true;
 		}
@@ -72,9 +83,24 @@ public class IntegratedEconomy implements Economy {
 	}
 	
 	@Override
-	public void save() {
+	public int save() {
 		Datasource ds = Utils.plugin.getDataSource();
-		ds.savePlayerBalances(players);
-		ds.saveFactionBalances(factions);
+		HashMap<String, Integer> changedPlayers = new HashMap<String, Integer>(dirtyPlayers.size());
+		for(String player : dirtyPlayers) {
+			changedPlayers.put(player, players.get(player));
+		}
+		HashMap<Integer, Integer> changedFactions = new HashMap<Integer, Integer>(dirtyFactions.size());
+		for(Integer id : dirtyFactions) {
+			changedFactions.put(id, factions.get(id));
+		}
+		dirtyPlayers.clear();
+		dirtyFactions.clear();
+		if(!changedPlayers.isEmpty()) {
+			ds.savePlayerBalances(changedPlayers);
+		}
+		if(!changedFactions.isEmpty()) {
+			ds.saveFactionBalances(changedFactions);
+		}
+		return changedPlayers.size() + changedFactions.size();
 	}
 }
@@ -2,10 +2,10 @@ package en.gregthegeek.gfactions.faction;
 
 import java.util.ArrayList;
 
-import net.canarymod.Canary;
 import net.canarymod.api.world.position.Location;
 import net.canarymod.chat.TextFormat;
 
+import en.gregthegeek.gfactions.player.OnlineManager;
 import en.gregthegeek.util.Utils;
 
 /**
@@ -36,7 +36,7 @@ public class CachedFaction extends Faction {
 	}
 	
 	/**
-	 * Adds mods to the faction.
+	 * Adds mods to the faction. Used while loading, so the faction is not marked as changed.
 	 * 
 	 * @param list The list of mods to add
 	 */
@@ -45,11 +45,10 @@ public class CachedFaction extends Faction {
 		for(String s : list) {
 			mods.add(s);
 		}
-		save();
 	}
 	
 	/**
-	 * Adds members to the faction.
+	 * Adds members to the faction. Used while loading, so the faction is not marked as changed.
 	 * 
 	 * @param list The list of members to add
 	 */
@@ -58,7 +57,6 @@ public class CachedFaction extends Faction {
 		for(String s : list) {
 			members.add(s);
 		}
-		save();
 	}
 	
 	@Override
@@ -91,6 +89,11 @@ public class CachedFaction extends Faction {
 		return home;
 	}
 	
+	@Override
+	public int getMemberCount() {
+		return mods.size() + members.size() + 1;
+	}
+	
 	@Override
 	public boolean isMember(String player) {
 		return player.equals(admin) || mods.contains(player) || members.contains(player);
@@ -103,7 +106,7 @@ public class CachedFaction extends Faction {
 		rt[0] = String.format("%1$s------------ %2$s%3$s %1$s------------", TextFormat.ORANGE, relationColor, getName());
 		rt[1] = String.format("%s%s", relationColor, getDescription());
 		rt[2] = String.format("%1$sOpen: %2$s    %1$sPeaceful: %3$s", TextFormat.YELLOW, Utils.readBool(isOpen(), "Yes", "No"), Utils.readBool(isPeaceful(), "Yes", "No"));
-		rt[3] = String.format("%sLand/Power/Maxpower: %d/%d/%d", TextFormat.YELLOW, getLand().length, getPower(), getMaxPower());
+		rt[3] = String.format("%sLand/Power/Maxpower: %d/%d/%d", TextFormat.YELLOW, getLandCount(), getPower(), getMaxPower());
 		String[] mems = getMembersFormatted(relationColor);
 		assert mems.length == 2;
 		rt[4] = String.format("%sMembers online: %s", TextFormat.YELLOW, mems[0]);
@@ -120,13 +123,14 @@ public class CachedFaction extends Faction {
 	private String[] getMembersFormatted(String relationColor) {
 		StringBuilder online = new StringBuilder();
 		StringBuilder offline = new StringBuilder();
+		OnlineManager om = Utils.plugin.getOnlineManager();
 		for(String member : getAllMembers()) {
 			String rank = getRank(member).getPrefix();
 			String title = Utils.plugin.getPlayerManager().getPlayer(member).getTitle();
 			if(title != null && !title.isEmpty()) {
 				title += " ";
 			}
-			if(Canary.getServer().getPlayer(member) == null) { // offline
+			if(!om.isOnline(member)) { // offline
 				offline.append(relationColor).append(title).append(rank).append(member).append(TextFormat.ORANGE).append(", ");
 			} else { //online
 				online.append(relationColor).append(title).append(rank).append(member).append(TextFormat.ORANGE).append(", ");
@@ -161,6 +165,7 @@ public class CachedFaction extends Faction {
 			setAdmin(player);
 			break;
 		}
+		Utils.plugin.getFactionManager().indexMember(player, id);
 		save();
 	}
 
@@ -169,10 +174,12 @@ public class CachedFaction extends Faction {
 		switch(oldRank) {
 		case MEMBER:
 			members.remove(player);
+			Utils.plugin.getFactionManager().unindexMember(player, id);
 			save();
 			break;
 		case MODERATOR:
 			mods.remove(player);
+			Utils.plugin.getFactionManager().unindexMember(player, id);
 			save();
 			break;
 		case ADMIN:
@@ -194,6 +201,7 @@ public class CachedFaction extends Faction {
 
 	@Override
 	public void setName(String name) {
+		Utils.plugin.getFactionManager().rename(this.name, name, id);
 		this.name = name;
 		save();
 	}
@@ -212,13 +220,20 @@ public class CachedFaction extends Faction {
 
 	@Override
 	public void setAdmin(String admin) {
+		FactionManager fm = Utils.plugin.getFactionManager();
+		fm.unindexMember(this.admin, id);
 		this.admin = admin;
+		mods.remove(admin);
+		members.remove(admin);
+		fm.indexMember(admin, id);
 		save();
 	}
 	
 	private void save() {
 		if(Utils.plugin.getConfig().getSaveInterval() < 0) {
 			Utils.plugin.getDataSource().save(this);
+		} else {
+			Utils.plugin.getFactionManager().markDirty(this);
 		}
 	}
 }
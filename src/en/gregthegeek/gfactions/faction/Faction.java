@@ -1,16 +1,14 @@
 package en.gregthegeek.gfactions.faction;
 
 import java.util.ArrayList;
+import java.util.List;
 
-import net.canarymod.Canary;
-import net.canarymod.api.Server;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.position.Location;
 import net.canarymod.chat.MessageReceiver;
 
 import en.gregthegeek.gfactions.FactionCommand;
 import en.gregthegeek.gfactions.land.Land;
-import en.gregthegeek.gfactions.player.gPlayerManager;
 import en.gregthegeek.gfactions.relation.Relation;
 import en.gregthegeek.util.MapIconGen;
 import en.gregthegeek.util.Utils;
@@ -145,6 +143,12 @@ public abstract class Faction {
 		return false;
 	}
 	
+	@Override
+	public int hashCode() {
+		int id = getId();
+		return id == -1 ? getName().hashCode() : id;
+	}
+	
 	/**
 	 * Returns an array of messages that describe the faction.
 	 * Used by /f who
@@ -211,6 +215,15 @@ public abstract class Faction {
 		return rt;
 	}
 	
+	/**
+	 * Returns the amount of players in the faction, including the admin.
+	 * 
+	 * @return int
+	 */
+	public int getMemberCount() {
+		return getAllMembers().length;
+	}
+	
 	/**
 	 * Returns the rank of a player.
 	 * 
@@ -324,12 +337,8 @@ public abstract class Faction {
 	 * @param message The message to send.
 	 */
 	public void sendToMembers(String message) {
-		Server server = Canary.getServer();
-		for(String member : getAllMembers()) {
-			Player p = server.getPlayer(member);
-			if(p != null) {
-				p.message(message);
-			}
+		for(Player p : Utils.plugin.getOnlineManager().getOnline(getId())) {
+			p.message(message);
 		}
 	}
 	
@@ -346,15 +355,8 @@ public abstract class Faction {
 	 * @return Player[]
 	 */
 	public Player[] getOnlineMembers() {
-		ArrayList<Player> online = new ArrayList<Player>();
-		Server server = Canary.getServer();
-		for(String member : getAllMembers()) {
-			Player p = server.getPlayer(member);
-			if(p != null) {
-				online.add(p);
-			}
-		}
-		return online.toArray(new Player[0]);
+		List<Player> online = Utils.plugin.getOnlineManager().getOnline(getId());
+		return online.toArray(new Player[online.size()]);
 	}
 	
 	/**
@@ -382,12 +384,7 @@ public abstract class Faction {
 	 * @return int
 	 */
 	public int getPower() {
-		gPlayerManager pManager = Utils.plugin.getPlayerManager();
-		int power = 0;
-		for(String member : getAllMembers()) {
-			power += pManager.getPlayer(member).getPower();
-		}
-		return power;
+		return Utils.plugin.getFactionManager().getPower(getId());
 	}
 	
 	/**
@@ -396,12 +393,7 @@ public abstract class Faction {
 	 * @return int
 	 */
 	public int getMaxPower() {
-		gPlayerManager pManager = Utils.plugin.getPlayerManager();
-		int maxPower = 0;
-		for(String member : getAllMembers()) {
-			maxPower += pManager.getPlayer(member).getMaxPower();
-		}
-		return maxPower;
+		return Utils.plugin.getFactionManager().getMaxPower(getId());
 	}
 	
 	/**
@@ -413,6 +405,15 @@ public abstract class Faction {
 		return Utils.plugin.getLandManager().getOwnedBy(getId());
 	}
 	
+	/**
+	 * Returns the amount of land owned by the faction.
+	 * 
+	 * @return int
+	 */
+	public int getLandCount() {
+		return Utils.plugin.getLandManager().getLandCount(getId());
+	}
+	
 	/**
 	 * Returns the character that represents this faction on a map.
 	 * 
@@ -1,13 +1,21 @@
 package en.gregthegeek.gfactions.faction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
+import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.chat.TextFormat;
 
 import en.gregthegeek.gfactions.Config;
-import en.gregthegeek.gfactions.db.Datasource;
 import en.gregthegeek.gfactions.economy.Economy;
-import en.gregthegeek.gfactions.land.Land;
+import en.gregthegeek.gfactions.player.gPlayer;
 import en.gregthegeek.gfactions.player.gPlayerManager;
 import en.gregthegeek.util.Utils;
 
@@ -18,38 +26,250 @@ import en.gregthegeek.util.Utils;
  *
  */
 public class FactionManager {
+	/**
+	 * The summed power of a faction's members.
+	 */
+	private static class PowerTotal {
+		private int power = 0; // settled power plus bonus power, regen since the last settle is added on read
+		private int maxPower = 0;
+	}
+	
 	private static final int PAGESIZE = 8;
 	private final Faction wilderness = new Wilderness();
 	private final Faction safezone = new SafeZone();
 	private final Faction warzone = new WarZone();
-	private ArrayList<Faction> factions = new ArrayList<Faction>(); // Should have every faction on the server
+	private ArrayList<Faction> factions = new ArrayList<Faction>(); // Should have every faction on the server, as LazyFactions
+	private final HashMap<String, Integer> memberIndex = new HashMap<String, Integer>(); // player name -> faction id
+	private final HashMap<String, Integer> nameIndex = new HashMap<String, Integer>(); // lowercase faction name -> faction id
+	private Faction[] byId = new Faction[16]; // faction id -> faction, null if the id is not in use
+	private final BitSet usedIds = new BitSet();
+	private final HashSet<CachedFaction> dirty = new HashSet<CachedFaction>(); // factions changed since the last save, always loaded
+	private final LinkedHashMap<Integer, CachedFaction> loaded = new LinkedHashMap<Integer, CachedFaction>(16, 0.75f, true); // faction id -> fully loaded faction, least recently used first
+	private final int cacheSize;
+	private final HashMap<Integer, PowerTotal> powerTotals = new HashMap<Integer, PowerTotal>(); // faction id -> member power
+	private final FactionRanking ranking = new FactionRanking();
 	
-	public FactionManager() {
-		Faction[] facs = Utils.plugin.getDataSource().getAllFactions();
+	/**
+	 * @param facs Every faction in the datasource.
+	 */
+	public FactionManager(Faction[] facs) {
+		cacheSize = Utils.plugin.getConfig().getFactionCacheSize();
 		factions.ensureCapacity(facs.length);
 		Economy e = Utils.plugin.getEconomy();
 		for(Faction f : facs) {
-			factions.add(f);
+			register((CachedFaction) f, cacheSize <= 0 || loaded.size() < cacheSize);
 			e.initFaction(f.getId());
 		}
 	}
 	
 	/**
-	 * Returns a list of server factions.
+	 * Adds a faction to the list and all of the lookup indexes.
+	 * 
+	 * @param f The faction to add.
+	 * @param keep Whether or not to keep the faction fully loaded.
+	 */
+	private void register(CachedFaction f, boolean keep) {
+		int id = f.getId();
+		LazyFaction lazy = new LazyFaction(f);
+		factions.add(lazy);
+		setById(id, lazy);
+		usedIds.set(id);
+		nameIndex.put(f.getName().toLowerCase(), id);
+		ranking.add(id);
+		indexMembers(f);
+		if(keep) {
+			lazy.load(f);
+			loaded.put(id, f);
+		}
+	}
+	
+	private void setById(int id, Faction f) {
+		if(id >= byId.length) {
+			byId = Arrays.copyOf(byId, Math.max(id + 1, byId.length * 2));
+		}
+		byId[id] = f;
+	}
+	
+	/**
+	 * Updates the name index after a faction is renamed. Called by CachedFaction.setName().
+	 * 
+	 * @param oldName The previous name of the faction.
+	 * @param newName The new name of the faction.
+	 * @param id The id of the renamed faction.
+	 */
+	void rename(String oldName, String newName, int id) {
+		if(oldName != null) {
+			Integer current = nameIndex.get(oldName.toLowerCase());
+			if(current != null && current == id) {
+				nameIndex.remove(oldName.toLowerCase());
+			}
+		}
+		nameIndex.put(newName.toLowerCase(), id);
+	}
+	
+	/**
+	 * Records every member of a faction in the member index.
+	 * 
+	 * @param f The faction to index.
+	 */
+	private void indexMembers(Faction f) {
+		int id = f.getId();
+		for(String member : f.getAllMembers()) {
+			indexMember(member, id);
+		}
+	}
+	
+	/**
+	 * Records that a player is now in the given faction. Called by CachedFaction when membership changes.
+	 * 
+	 * @param player The player that joined.
+	 * @param id The id of the faction joined.
+	 */
+	void indexMember(String player, int id) {
+		Integer old = memberIndex.put(player, id);
+		if(old == null || old != id) {
+			if(old != null) {
+				addPower(old, player, -1);
+				ranking.change(old, FactionRanking.SortKey.MEMBERS, -1);
+			}
+			addPower(id, player, 1);
+			ranking.change(id, FactionRanking.SortKey.MEMBERS, 1);
+		}
+		Utils.plugin.getOnlineManager().joined(player, id);
+	}
+	
+	/**
+	 * Records that a player is no longer in the given faction. Called by CachedFaction when membership changes.
+	 * 
+	 * @param player The player that left.
+	 * @param id The id of the faction left.
+	 */
+	void unindexMember(String player, int id) {
+		Integer current = memberIndex.get(player);
+		if(current != null && current == id) {
+			memberIndex.remove(player);
+			addPower(id, player, -1);
+			ranking.change(id, FactionRanking.SortKey.MEMBERS, -1);
+			Utils.plugin.getOnlineManager().left(player, id);
+		}
+	}
+	
+	private PowerTotal getPowerTotal(int id) {
+		PowerTotal t = powerTotals.get(id);
+		if(t == null) {
+			t = new PowerTotal();
+			powerTotals.put(id, t);
+		}
+		return t;
+	}
+	
+	/**
+	 * Adds or removes a player's power from a faction's totals.
+	 * 
+	 * @param id The id of the faction.
+	 * @param player The name of the player.
+	 * @param sign 1 to add, -1 to remove.
+	 */
+	private void addPower(int id, String player, int sign) {
+		gPlayer gp = Utils.plugin.getPlayerManager().getPlayer(player);
+		if(gp != null) {
+			PowerTotal t = getPowerTotal(id);
+			int power = sign * (gp.getRawPower() + gp.bonusPower);
+			t.power += power;
+			t.maxPower += sign * gp.getMaxPower();
+			ranking.change(id, FactionRanking.SortKey.POWER, power);
+		}
+	}
+	
+	/**
+	 * Updates the totals of a player's faction after the player's stored power changed. Called by gPlayer and gPlayerManager.
+	 * 
+	 * @param player The name of the player.
+	 * @param power The change in power.
+	 * @param maxPower The change in max power.
+	 */
+	public void powerChanged(String player, int power, int maxPower) {
+		Integer id = memberIndex.get(player);
+		if(id != null) {
+			PowerTotal t = getPowerTotal(id);
+			t.power += power;
+			t.maxPower += maxPower;
+			ranking.change(id, FactionRanking.SortKey.POWER, power);
+		}
+	}
+	
+	/**
+	 * Updates the land ranking after a faction claimed or lost land. Called by LandManager.
+	 * 
+	 * @param id The id of the faction.
+	 * @param delta The change in the amount of land owned.
+	 */
+	public void landChanged(int id, int delta) {
+		ranking.change(id, FactionRanking.SortKey.LAND, delta);
+	}
+	
+	/**
+	 * Returns the total power of a faction's members, without loading any of them.
+	 * 
+	 * @param id The id of the faction.
+	 * @return int
+	 */
+	public int getPower(int id) {
+		PowerTotal t = powerTotals.get(id);
+		if(t == null) {
+			return 0;
+		}
+		int power = t.power;
+		gPlayerManager pm = Utils.plugin.getPlayerManager();
+		for(Player p : Utils.plugin.getOnlineManager().getOnline(id)) { // only online players regenerate
+			gPlayer gp = pm.getPlayer(p.getName());
+			if(gp != null) {
+				power += gp.getRegeneratedPower();
+			}
+		}
+		return power;
+	}
+	
+	/**
+	 * Returns the total max power of a faction's members.
+	 * 
+	 * @param id The id of the faction.
+	 * @return int
+	 */
+	public int getMaxPower(int id) {
+		PowerTotal t = powerTotals.get(id);
+		return t == null ? 0 : t.maxPower;
+	}
+	
+	/**
+	 * Returns a list of server factions, sorted by power.
 	 * 
 	 * @param page The page of the list to show.
 	 * @param relativeTo The faction to display names relative to.
 	 * @return String[]
 	 */
 	public String[] getList(int page, Faction relativeTo) {
+		return getList(page, relativeTo, FactionRanking.SortKey.POWER);
+	}
+	
+	/**
+	 * Returns a list of server factions.
+	 * Power is sorted by its last saved value, regeneration since then is only shown.
+	 * 
+	 * @param page The page of the list to show.
+	 * @param relativeTo The faction to display names relative to.
+	 * @param sort What to sort the factions by.
+	 * @return String[]
+	 */
+	public String[] getList(int page, Faction relativeTo, FactionRanking.SortKey sort) {
 		String[] rt = new String[PAGESIZE + 2];
-		int max = factions.size();
-		rt[0] = String.format("%s---------- Factions | Page %d/%d ----------", TextFormat.ORANGE, page + 1, max / PAGESIZE + 1);
+		int max = ranking.size();
+		rt[0] = String.format("%s------ Factions by %s | Page %d/%d ------", TextFormat.ORANGE, sort.name().toLowerCase(), page + 1, max / PAGESIZE + 1);
+		List<Integer> ids = page < 0 ? Collections.<Integer>emptyList() : ranking.getRange(sort, page * PAGESIZE, PAGESIZE);
 		for(int i=0; i<rt.length-2; i++) {
-			int index = page * PAGESIZE + i;
-			if(index < max && index >= 0) {
-				Faction f = factions.get(index);
-				rt[i + 1] = String.format("%s (%d/%d/%d)", f.getNameRelative(relativeTo), f.getLand().length, f.getPower(), f.getMaxPower());
+			if(i < ids.size()) {
+				Faction f = getFaction(ids.get(i));
+				rt[i + 1] = String.format("%s (%d/%d/%d)", f.getNameRelative(relativeTo), f.getLandCount(), f.getPower(), f.getMaxPower());
 			} else {
 				rt[i + 1] = "No more.";
 			}
@@ -59,35 +279,67 @@ public class FactionManager {
 	}
 	
 	/**
-	 * Retrieves the information for a LazyFaction.
+	 * Retrieves the information for a LazyFaction, and drops the least recently used factions if too many are loaded.
 	 * 
 	 * @param f The LazyFaction to cache.
 	 * @return CachedFaction
 	 */
-	public CachedFaction cache(LazyFaction f) {
-		// check to see if we already have a cached version.
-		Faction fac = null;
+	CachedFaction cache(LazyFaction f) {
 		int id = f.getId();
-		int index = -1;
-		for(int i=0; i<factions.size(); i++) {
-			Faction fa = factions.get(i);
-			if(fa.getId() == id) {
-				fac = fa;
-				index = i;
-				break;
+		CachedFaction cache = loaded.get(id);
+		if(cache == null) {
+			cache = Utils.plugin.getDataSource().getFaction(id);
+			if(cache == null) { // the row is gone, keep what we know so the faction still works
+				Utils.warning("Faction %d (%s) is missing from the datasource", id, f.getName());
+				cache = new CachedFaction(id, f.getName(), "", f.isOpen(), f.isPeaceful(), f.getAdmin(), null);
 			}
+			loaded.put(id, cache);
+			evict(id);
 		}
-		if(fac instanceof CachedFaction) {
-			return (CachedFaction) fac;
-		}
-		
-		// update our list to hold the cached version of the faction.
-		CachedFaction cache = Utils.plugin.getDataSource().getFaction(id);
-		factions.set(index, cache);
-		
 		return cache;
 	}
 	
+	/**
+	 * Marks a loaded faction as recently used. Called by LazyFaction.
+	 * 
+	 * @param id The id of the faction.
+	 */
+	void touch(int id) {
+		loaded.get(id);
+	}
+	
+	/**
+	 * Drops the least recently used factions until no more than the cache size are loaded.
+	 * Factions with unsaved changes are kept until they are saved.
+	 * 
+	 * @param keep The id of a faction that is about to be used and must stay loaded, or -1.
+	 */
+	private void evict(int keep) {
+		if(cacheSize <= 0) {
+			return;
+		}
+		Iterator<CachedFaction> it = loaded.values().iterator();
+		while(loaded.size() > cacheSize && it.hasNext()) {
+			CachedFaction f = it.next();
+			if(f.getId() != keep && !dirty.contains(f)) {
+				it.remove();
+				Faction lazy = getFaction(f.getId());
+				if(lazy instanceof LazyFaction) { // null while being disbanded
+					((LazyFaction) lazy).evict();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the amount of factions that are fully loaded.
+	 * 
+	 * @return int
+	 */
+	public int getLoadedCount() {
+		return loaded.size();
+	}
+	
 	/**
 	 * Returns a faction, lazy or cached.
 	 * 
@@ -98,12 +350,7 @@ public class FactionManager {
 		if(id == -1) {return wilderness;}
 		if(id == -2) {return safezone;}
 		if(id == -3) {return warzone;}
-		for(Faction f : factions) {
-			if(f.getId() == id) {
-				return f;
-			}
-		}
-		return null;
+		return id >= 0 && id < byId.length ? byId[id] : null;
 	}
 	
 	/**
@@ -115,12 +362,12 @@ public class FactionManager {
 	 * @return Faction
 	 */
 	public Faction getFaction(String member) {
-		for(Faction f : factions) {
-			if(f.isMember(member)) {
-				return f;
-			}
+		Integer id = memberIndex.get(member);
+		if(id == null) {
+			return wilderness;
 		}
-		return wilderness;
+		Faction f = getFaction(id);
+		return f == null ? wilderness : f;
 	}
 	
 	/**
@@ -132,24 +379,32 @@ public class FactionManager {
 	 * @return Faction
 	 */
 	public Faction getFactionByName(String name) {
-		for(Faction f : factions) {
-			if(f.getName().equalsIgnoreCase(name)) {
-				return f;
-			}
-		}
-		return null;
+		Integer id = nameIndex.get(name.toLowerCase());
+		return id == null ? null : getFaction(id);
 	}
 	
 	/**
-	 * Saves all CachedFactions to the datasource.
+	 * Marks a faction as changed so it is written on the next save. Called by CachedFaction.
+	 * 
+	 * @param f The faction that changed.
 	 */
-	public void save() {
-		Datasource ds = Utils.plugin.getDataSource();
-		for(Faction f : factions) {
-			if(f instanceof CachedFaction) {
-				ds.save((CachedFaction) f);
-			}
+	void markDirty(CachedFaction f) {
+		dirty.add(f);
+	}
+	
+	/**
+	 * Saves all CachedFactions that changed since the last save to the datasource.
+	 * 
+	 * @return int The amount of factions written.
+	 */
+	public int save() {
+		int count = dirty.size();
+		if(count > 0) {
+			Utils.plugin.getDataSource().saveFactions(new ArrayList<CachedFaction>(dirty));
+			dirty.clear();
+			evict(-1);
 		}
+		return count;
 	}
 	
 	/**
@@ -165,11 +420,14 @@ public class FactionManager {
 		}
 		Config config = Utils.plugin.getConfig();
 		CachedFaction f = new CachedFaction(getNextId(), factionName, config.getDefaultFactionDesc(), config.isDefaultFactionOpen(), false, creator, null);
-		factions.add(f);
+		register(f, true);
+		evict(f.getId());
 		Utils.plugin.getEconomy().initFaction(f.getId());
 		
 		if(config.getSaveInterval() < 0) {
 			Utils.plugin.getDataSource().save(f);
+		} else {
+			markDirty(f);
 		}
 		
 		return true;
@@ -182,11 +440,7 @@ public class FactionManager {
 	 * @return int
 	 */
 	private int getNextId() {
-		int id = 0;
-		while(getFaction(id) != null) {
-			id++;
-		}
-		return id;
+		return usedIds.nextClearBit(0);
 	}
 	
 	/**
@@ -196,11 +450,16 @@ public class FactionManager {
 	 */
 	public void disband(Faction f) {
 		factions.remove(f);
-		
-		for(Land l : Utils.plugin.getLandManager().getOwnedBy(f)) {
-			l.claim(null);
+		int id = f.getId();
+		setById(id, null);
+		usedIds.clear(id);
+		nameIndex.remove(f.getName().toLowerCase());
+		for(String member : f.getAllMembers()) {
+			unindexMember(member, id);
 		}
 		
+		Utils.plugin.getLandManager().unclaimAll(id);
+		
 		gPlayerManager gpm = Utils.plugin.getPlayerManager();
 		for(String m : f.getMembers()) {
 			gpm.getPlayer(m).setTitle("");
@@ -208,6 +467,12 @@ public class FactionManager {
 		
 		Utils.plugin.getRelationManager().removeAll(f);
 		
+		CachedFaction full = loaded.remove(id); // last, since the calls above may load it
+		if(full != null) {
+			dirty.remove(full);
+		}
+		powerTotals.remove(id);
+		ranking.remove(id);
 		Utils.plugin.getDataSource().delete(f);
 	}
 }
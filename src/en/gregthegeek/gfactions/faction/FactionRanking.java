@@ -0,0 +1,149 @@
+package en.gregthegeek.gfactions.faction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+
+import en.gregthegeek.util.RankedTree;
+
+/**
+ * Keeps factions sorted by power, land, and members, updated as those change, so /f list can read any page without sorting.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class FactionRanking {
+	public enum SortKey {
+		POWER,
+		LAND,
+		MEMBERS;
+		
+		/**
+		 * Returns the sort key named by a string, or null if there is none.
+		 * 
+		 * @param s The name, or the start of it.
+		 * @return SortKey
+		 */
+		public static SortKey fromString(String s) {
+			String name = s.toUpperCase();
+			for(SortKey key : values()) {
+				if(!name.isEmpty() && key.name().startsWith(name)) {
+					return key;
+				}
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * A faction's position in one ranking. Entries are replaced, not changed, so the trees stay sorted.
+	 */
+	private static class Entry {
+		private final int id;
+		private final int value;
+		
+		private Entry(int id, int value) {
+			this.id = id;
+			this.value = value;
+		}
+	}
+	
+	// highest first, ties broken by id so every entry is distinct
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if(a.value != b.value) {
+				return a.value > b.value ? -1 : 1;
+			}
+			return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+		}
+	};
+	
+	private final EnumMap<SortKey, RankedTree<Entry>> trees = new EnumMap<SortKey, RankedTree<Entry>>(SortKey.class);
+	private final EnumMap<SortKey, HashMap<Integer, Entry>> entries = new EnumMap<SortKey, HashMap<Integer, Entry>>(SortKey.class); // sort key -> faction id -> current entry
+	
+	public FactionRanking() {
+		for(SortKey key : SortKey.values()) {
+			trees.put(key, new RankedTree<Entry>(ORDER));
+			entries.put(key, new HashMap<Integer, Entry>());
+		}
+	}
+	
+	/**
+	 * Adds a faction to every ranking with all values at 0.
+	 * 
+	 * @param id The id of the faction.
+	 */
+	void add(int id) {
+		for(SortKey key : SortKey.values()) {
+			Entry e = new Entry(id, 0);
+			if(entries.get(key).put(id, e) == null) {
+				trees.get(key).add(e);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a faction from every ranking.
+	 * 
+	 * @param id The id of the faction.
+	 */
+	void remove(int id) {
+		for(SortKey key : SortKey.values()) {
+			Entry e = entries.get(key).remove(id);
+			if(e != null) {
+				trees.get(key).remove(e);
+			}
+		}
+	}
+	
+	/**
+	 * Changes one of a faction's values. Does nothing for factions that aren't ranked.
+	 * 
+	 * @param id The id of the faction.
+	 * @param key The value to change.
+	 * @param delta The amount to change it by.
+	 */
+	void change(int id, SortKey key, int delta) {
+		if(delta == 0) {
+			return;
+		}
+		HashMap<Integer, Entry> current = entries.get(key);
+		Entry old = current.get(id);
+		if(old != null) {
+			RankedTree<Entry> tree = trees.get(key);
+			tree.remove(old);
+			Entry e = new Entry(id, old.value + delta);
+			current.put(id, e);
+			tree.add(e);
+		}
+	}
+	
+	/**
+	 * Returns the amount of ranked factions.
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return entries.get(SortKey.POWER).size();
+	}
+	
+	/**
+	 * Returns the ids of factions in ranked order.
+	 * 
+	 * @param key What to sort by.
+	 * @param from The position of the first faction to return.
+	 * @param count The maximum amount of factions to return.
+	 * @return List<Integer>
+	 */
+	public List<Integer> getRange(SortKey key, int from, int count) {
+		List<Entry> range = trees.get(key).range(from, count);
+		ArrayList<Integer> rt = new ArrayList<Integer>(range.size());
+		for(Entry e : range) {
+			rt.add(e.id);
+		}
+		return rt;
+	}
+}
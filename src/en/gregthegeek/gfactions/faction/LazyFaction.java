@@ -3,51 +3,105 @@ import net.canarymod.api.world.position.Location;
 import en.gregthegeek.util.Utils;
 
 /**
- * Represents a faction that has all of its data in storage.
+ * Represents a faction that keeps only its basic information in memory.
+ * The rest (members, home, description) is loaded from storage when it is needed, and may be dropped again by the FactionManager.
  * 
  * @author gregthegeek
  *
  */
 public class LazyFaction extends Faction {
 	private final int id;
-	private CachedFaction alreadyCached; //caching the cache. wat.
+	private String name;
+	private String admin;
+	private boolean isOpen;
+	private boolean isPeaceful;
+	private int memberCount;
+	private CachedFaction loaded; // null while only the header is in memory
 	
-	public LazyFaction(int id) {
-		this.id = id;
+	/**
+	 * Creates the header for a faction.
+	 * 
+	 * @param full The fully loaded faction.
+	 */
+	LazyFaction(CachedFaction full) {
+		this.id = full.getId();
+		update(full);
+	}
+	
+	/**
+	 * Copies the header fields from the fully loaded faction.
+	 * 
+	 * @param full The fully loaded faction.
+	 */
+	private void update(CachedFaction full) {
+		name = full.getName();
+		admin = full.getAdmin();
+		isOpen = full.isOpen();
+		isPeaceful = full.isPeaceful();
+		memberCount = full.getMemberCount();
+	}
+	
+	/**
+	 * Returns the fully loaded faction, loading it if it isn't in memory.
+	 * 
+	 * @return CachedFaction
+	 */
+	private CachedFaction cache() {
+		FactionManager fm = Utils.plugin.getFactionManager();
+		if(loaded == null) {
+			loaded = fm.cache(this);
+		} else {
+			fm.touch(id);
+		}
+		return loaded;
+	}
+	
+	/**
+	 * Sets the fully loaded faction, so it doesn't have to be read from storage. Called by FactionManager.
+	 * 
+	 * @param full The fully loaded faction.
+	 */
+	void load(CachedFaction full) {
+		loaded = full;
+	}
+	
+	/**
+	 * Drops the fully loaded faction from memory. Called by FactionManager.
+	 */
+	void evict() {
+		loaded = null;
 	}
 	
 	@Override
 	public int getId() {
 		return id;
 	}
-
+	
 	@Override
 	public String getName() {
-		return cache().getName();
+		return name;
 	}
 	
-	private CachedFaction cache() {
-		if(alreadyCached != null) {
-			alreadyCached = Utils.plugin.getFactionManager().cache(this);
-		}
-		return alreadyCached;
-	}
-
 	@Override
 	public boolean isOpen() {
-		return cache().isOpen();
+		return isOpen;
 	}
-
+	
 	@Override
 	public boolean isPeaceful() {
-		return cache().isPeaceful();
+		return isPeaceful;
 	}
-
+	
 	@Override
 	public String getAdmin() {
-		return cache().getAdmin();
+		return admin;
 	}
-
+	
+	@Override
+	public int getMemberCount() {
+		return memberCount;
+	}
+	
 	@Override
 	public Location getHome() {
 		return cache().getHome();
@@ -55,61 +109,72 @@ public class LazyFaction extends Faction {
 	
 	@Override
 	public boolean isMember(String player) {
-		return cache().isMember(player);
+		// the member index covers every faction, loaded or not
+		return Utils.plugin.getFactionManager().getFaction(player).getId() == id;
 	}
 	
 	@Override
 	public String[] getWho(Faction relativeTo) {
 		return cache().getWho(relativeTo);
 	}
-
+	
 	@Override
 	public String[] getMods() {
 		return cache().getMods();
 	}
-
+	
 	@Override
 	public String[] getMembers() {
 		return cache().getMembers();
 	}
-
+	
 	@Override
 	public void add(String player, PlayerRank rank) {
-		cache().add(player, rank);
+		CachedFaction full = cache();
+		full.add(player, rank);
+		update(full);
 	}
-
+	
 	@Override
 	public void remove(String player, PlayerRank oldRank) {
-		cache().remove(player, oldRank);
+		CachedFaction full = cache();
+		full.remove(player, oldRank);
+		update(full);
 	}
-
+	
 	@Override
 	public void setDescription(String desc) {
 		cache().setDescription(desc);
 	}
-
+	
 	@Override
 	public String getDescription() {
 		return cache().getDescription();
 	}
-
+	
 	@Override
 	public void setName(String name) {
-		cache().setName(name);
+		CachedFaction full = cache();
+		full.setName(name);
+		update(full);
 	}
-
+	
 	@Override
 	public void setOpen(boolean open) {
-		cache().setOpen(open);
+		CachedFaction full = cache();
+		full.setOpen(open);
+		update(full);
 	}
-
+	
 	@Override
 	public void setHome(Location home) {
 		cache().setHome(home);
 	}
-
+	
 	@Override
 	public void setAdmin(String admin) {
-		cache().setAdmin(admin);
+		CachedFaction full = cache();
+		full.setAdmin(admin);
+		update(full);
 	}
 }
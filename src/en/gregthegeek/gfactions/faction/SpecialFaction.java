@@ -140,4 +140,9 @@ public abstract class SpecialFaction extends Faction {
 	public Land[] getLand() {
 		return new Land[0];
 	}
+	
+	@Override
+	public int getLandCount() {
+		return 0;
+	}
 }
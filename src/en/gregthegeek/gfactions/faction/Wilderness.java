@@ -1,9 +1,5 @@
 package en.gregthegeek.gfactions.faction;
 
-import java.util.ArrayList;
-
-import net.canarymod.Canary;
-import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.chat.TextFormat;
 
 import en.gregthegeek.util.MapIconGen;
@@ -32,18 +28,6 @@ public class Wilderness extends SpecialFaction {
 		return "Pure anarchy.";
 	}
 	
-	@Override
-	public Player[] getOnlineMembers() {
-		FactionManager fManager = Utils.plugin.getFactionManager();
-		ArrayList<Player> rt = new ArrayList<Player>();
-		for(Player p : Canary.getServer().getPlayerList()) {
-			if(fManager.getFaction(p.getName()) instanceof Wilderness) {
-				rt.add(p);
-			}
-		}
-		return rt.toArray(new Player[0]);
-	}
-	
 	@Override
 	public int getId() {
 		return -1;
@@ -1,5 +1,7 @@
 package en.gregthegeek.gfactions;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 import net.canarymod.Canary;
@@ -11,10 +13,15 @@ import net.canarymod.tasks.TaskOwner;
 
 import en.gregthegeek.gfactions.db.CanarySource;
 import en.gregthegeek.gfactions.db.Datasource;
+import en.gregthegeek.gfactions.db.JournalSource;
+import en.gregthegeek.gfactions.db.MappedLandSource;
 import en.gregthegeek.gfactions.db.NullSource;
+import en.gregthegeek.gfactions.db.StartupLoader;
+import en.gregthegeek.gfactions.db.WriteBehindSource;
 import en.gregthegeek.gfactions.economy.Economy;
 import en.gregthegeek.gfactions.faction.FactionManager;
 import en.gregthegeek.gfactions.land.LandManager;
+import en.gregthegeek.gfactions.player.OnlineManager;
 import en.gregthegeek.gfactions.player.gPlayerManager;
 import en.gregthegeek.gfactions.relation.RelationManager;
 import en.gregthegeek.util.AutoSaver;
@@ -34,6 +41,7 @@ public class gFactions extends Plugin implements TaskOwner {
     private RelationManager rManager;
     private gPlayerManager pManager;
     private LandManager lManager;
+    private final OnlineManager oManager = new OnlineManager();
     private Config config;
     private Datasource dataSource;
     private Economy economy;
@@ -42,7 +50,7 @@ public class gFactions extends Plugin implements TaskOwner {
     public void disable() {
     	ThreadManager.stopAll();
     	Utils.saveAll();
-    	dataSource.close();
+    	dataSource.close(); // a WriteBehindSource writes everything still queued before closing
     }
     
     @Override
@@ -50,16 +58,34 @@ public class gFactions extends Plugin implements TaskOwner {
     	Utils.plugin = this;
     	config = new Config();
     	try {
-			dataSource = new CanarySource();
+			if(config.isJournalStorage()) {
+				dataSource = new JournalSource(new File(Config.FOLDER + "journal"), config.getJournalSyncInterval());
+			} else {
+				dataSource = new CanarySource();
+			}
 		} catch (Exception e) {
 			log.severe("Error retrieving initial data from datasource!");
 			dataSource = new NullSource();
 		}
+    	// the journal keeps everything in memory and syncs in the background already
+    	if(config.isMappedLandStorage() && dataSource instanceof CanarySource) {
+    		try {
+    			dataSource = new MappedLandSource(dataSource, new File(Config.FOLDER + "land"));
+    		} catch (IOException e) {
+    			log.severe("Error opening land files, land will be stored in the database: " + e.getMessage());
+    		}
+    	}
+    	if(config.isWriteBehind() && !(dataSource instanceof NullSource || dataSource instanceof JournalSource)) {
+    		dataSource = new WriteBehindSource(dataSource, config.getWriteQueueSize());
+    	}
     	economy = config.getEconomy();
-    	fManager = new FactionManager();
-    	rManager = new RelationManager();
-    	pManager = new gPlayerManager();
-    	lManager = new LandManager();
+    	// everything is read up front so nothing has to be loaded during play
+    	StartupLoader loader = new StartupLoader(dataSource);
+    	loader.load();
+    	pManager = new gPlayerManager(loader.getPlayers()); // factions total their members' power when indexed
+    	fManager = new FactionManager(loader.getFactions());
+    	rManager = new RelationManager(loader.getRelations());
+    	lManager = new LandManager(loader.getLand());
     	
     	try {
             Canary.commands().registerCommands(new FactionCommand(), this, false);
@@ -101,6 +127,10 @@ public class gFactions extends Plugin implements TaskOwner {
     	return lManager;
     }
     
+    public OnlineManager getOnlineManager() {
+    	return oManager;
+    }
+    
     public Config getConfig() {
     	return config;
     }
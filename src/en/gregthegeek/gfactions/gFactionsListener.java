@@ -1,6 +1,7 @@
 package en.gregthegeek.gfactions;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.blocks.Block;
@@ -13,6 +14,7 @@ import net.canarymod.hook.player.BlockPlaceHook;
 import net.canarymod.hook.player.BlockRightClickHook;
 import net.canarymod.hook.player.ChatHook;
 import net.canarymod.hook.player.ConnectionHook;
+import net.canarymod.hook.player.DisconnectionHook;
 import net.canarymod.hook.player.PlayerDeathHook;
 import net.canarymod.hook.player.PlayerMoveHook;
 import net.canarymod.hook.player.PlayerRespawnHook;
@@ -27,6 +29,8 @@ import en.gregthegeek.gfactions.faction.ZoneFaction;
 import en.gregthegeek.gfactions.land.LandManager;
 import en.gregthegeek.gfactions.player.gPlayer;
 import en.gregthegeek.gfactions.relation.Relation;
+import en.gregthegeek.gfactions.relation.RelationManager;
+import en.gregthegeek.util.ThreadManager;
 import en.gregthegeek.util.Utils;
 
 public class gFactionsListener implements PluginListener {
@@ -39,6 +43,14 @@ public class gFactionsListener implements PluginListener {
         String name = player.getName();
         Utils.plugin.getPlayerManager().initPlayer(name);
         Utils.plugin.getEconomy().initPlayer(name);
+        Utils.plugin.getOnlineManager().login(player);
+    }
+    
+    @HookHandler
+    public void onLogout(DisconnectionHook hook) {
+        Utils.plugin.getOnlineManager().logout(hook.getPlayer());
+        Utils.plugin.getPlayerManager().logout(hook.getPlayer().getName());
+        ThreadManager.disconnect(hook.getPlayer());
     }
     
     @HookHandler
@@ -79,26 +91,25 @@ public class gFactionsListener implements PluginListener {
             // public chat
             if(f != null && !(f instanceof SpecialFaction)) {
                 hook.setCanceled();
-                Player[][] sorted = Utils.getOnlinePlayersSorted(f);
+                FactionManager fm = Utils.plugin.getFactionManager();
+                RelationManager rm = Utils.plugin.getRelationManager();
                 
                 String fName = f.getName();
                 String pNamef = player.getDisplayName();
                 String msg = hook.getMessage();
                 String format = "[%s%s] <%s%s> %s";
+                String[] formatted = new String[Relation.Type.values().length]; // each variant is formatted at most once
                 
-                String neutral = String.format(format, Relation.Type.NEUTRAL.getColor(), fName, pNamef, TextFormat.WHITE, msg);
-                for(Player p : sorted[0]) {
-                    p.message(neutral);
-                }
-                
-                String ally = String.format(format, Relation.Type.ALLY.getColor(), fName, pNamef, TextFormat.WHITE, msg);
-                for(Player p : sorted[1]) {
-                    p.message(ally);
-                }
-                
-                String enemy = String.format(format, Relation.Type.ENEMY.getColor(), fName, pNamef, TextFormat.WHITE, msg);
-                for(Player p : sorted[2]) {
-                    p.message(enemy);
+                for(Map.Entry<Integer, ArrayList<Player>> bucket : Utils.plugin.getOnlineManager().getBuckets().entrySet()) {
+                    Relation.Type type = rm.getRelation(f, fm.getFaction(bucket.getKey()));
+                    String line = formatted[type.ordinal()];
+                    if(line == null) {
+                        line = String.format(format, type.getColor(), fName, pNamef, TextFormat.WHITE, msg);
+                        formatted[type.ordinal()] = line;
+                    }
+                    for(Player p : bucket.getValue()) {
+                        p.message(line);
+                    }
                 }
             }
             return;
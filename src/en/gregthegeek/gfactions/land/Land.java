@@ -1,6 +1,7 @@
 package en.gregthegeek.gfactions.land;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import en.gregthegeek.gfactions.faction.Faction;
@@ -13,6 +14,21 @@ import en.gregthegeek.util.Utils;
  *
  */
 public class Land {
+	/**
+	 * Shared stand-in for every unclaimed chunk. Returned by read-only lookups and cannot be claimed or edited.
+	 */
+	public static final Land WILDERNESS = new Land(0, 0, "", 0, Collections.<String>emptyList()) {
+		@Override
+		public void claim(int fID) {
+			throw new UnsupportedOperationException("The wilderness sentinel cannot be claimed.");
+		}
+		
+		@Override
+		public boolean toggleOwner(String player) {
+			throw new UnsupportedOperationException("The wilderness sentinel cannot have owners.");
+		}
+	};
+	
 	private final int x;
 	private final int z;
 	private final String world;
@@ -36,6 +52,11 @@ public class Land {
 		this.owners = owners;
 	}
 	
+	public Land(int x, int z, String world, int dim, int faction, List<String> owners) {
+		this(x, z, world, dim, new ArrayList<String>(owners));
+		this.faction = faction;
+	}
+	
 	/**
 	 * Returns this land's x chunk coordinate.
 	 * 
@@ -63,6 +84,34 @@ public class Land {
 		return false;
 	}
 	
+	@Override
+	public int hashCode() {
+		int hash = world.hashCode();
+		hash = 31 * hash + dim;
+		long key = getChunkKey();
+		return 31 * hash + (int) (key ^ (key >>> 32));
+	}
+	
+	/**
+	 * Returns the x and z chunk coordinates of this land packed into a single long.
+	 * 
+	 * @return long
+	 */
+	public long getChunkKey() {
+		return chunkKey(x, z);
+	}
+	
+	/**
+	 * Packs chunk coordinates into a single long, suitable for use as a map key.
+	 * 
+	 * @param x Chunk x.
+	 * @param z Chunk z.
+	 * @return long
+	 */
+	public static long chunkKey(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+	
 	/**
 	 * Returns the faction that owns this land.
 	 * 
@@ -87,15 +136,26 @@ public class Land {
 	 * @param fID The id of the faction to claim the land.
 	 */
 	public void claim(int fID) {
+		int old = faction;
 		faction = fID;
-		if(faction < 0) {
+		Utils.plugin.getLandManager().update(this, old);
+		if(!isClaimed()) { // zones (-2, -3) are claims too
 			owners.clear();
+			Utils.plugin.getLandManager().clean(this);
 			Utils.plugin.getDataSource().delete(this);
 		} else {
 			save();
 		}
 	}
 	
+	/**
+	 * Returns this land to the wilderness without touching the indexes or the datasource. Used by LandManager.unclaimAll(), which takes care of both.
+	 */
+	void release() {
+		faction = -1;
+		owners.clear();
+	}
+	
 	/**
 	 * Returns the id of the faction that owns this land (faster than claimedBy()).
 	 * 
@@ -145,6 +205,8 @@ public class Land {
 	private void save() {
 		if(Utils.plugin.getConfig().getSaveInterval() < 0) {
 			Utils.plugin.getDataSource().save(this);
+		} else {
+			Utils.plugin.getLandManager().markDirty(this);
 		}
 	}
 	
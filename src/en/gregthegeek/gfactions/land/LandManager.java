@@ -1,9 +1,11 @@
 package en.gregthegeek.gfactions.land;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 
 import net.canarymod.api.world.position.Location;
 
-import en.gregthegeek.gfactions.db.Datasource;
 import en.gregthegeek.gfactions.faction.Faction;
 import en.gregthegeek.util.Utils;
 
@@ -14,18 +16,161 @@ import en.gregthegeek.util.Utils;
  *
  */
 public class LandManager {
-	private ArrayList<Land> lands = new ArrayList<Land>();
+	private final HashMap<String, HashMap<Integer, HashMap<Long, Land>>> lands = new HashMap<String, HashMap<Integer, HashMap<Long, Land>>>(); // world -> dimension -> chunk key -> land
+	private final HashMap<Integer, HashSet<Land>> owned = new HashMap<Integer, HashSet<Land>>(); // faction id -> claimed land
+	private final HashSet<Land> dirty = new HashSet<Land>(); // claimed land changed since the last save
 	
-	public LandManager() {
-		Land[] land = Utils.plugin.getDataSource().getAllLand();
-		lands.ensureCapacity(land.length);
-		for(Land l : land) {
-			lands.add(l);
+	/**
+	 * @param all Every piece of land in the datasource.
+	 */
+	public LandManager(Land[] all) {
+		for(Land l : all) {
+			add(l);
+		}
+		compact();
+	}
+	
+	/**
+	 * Drops any unclaimed land from memory. Only claimed land needs to be indexed, wilderness is implied.
+	 * 
+	 * @return int The amount of land removed.
+	 */
+	public int compact() {
+		int removed = 0;
+		Iterator<HashMap<Integer, HashMap<Long, Land>>> worlds = lands.values().iterator();
+		while(worlds.hasNext()) {
+			HashMap<Integer, HashMap<Long, Land>> dims = worlds.next();
+			Iterator<HashMap<Long, Land>> dimIt = dims.values().iterator();
+			while(dimIt.hasNext()) {
+				HashMap<Long, Land> chunks = dimIt.next();
+				Iterator<Land> it = chunks.values().iterator();
+				while(it.hasNext()) {
+					if(!it.next().isClaimed()) {
+						it.remove();
+						removed++;
+					}
+				}
+				if(chunks.isEmpty()) {
+					dimIt.remove();
+				}
+			}
+			if(dims.isEmpty()) {
+				worlds.remove();
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Returns the chunk map for a given world and dimension.
+	 * 
+	 * @param world The name of the world.
+	 * @param dim The dimension.
+	 * @param create Whether or not to create the map if it doesn't exist yet.
+	 * @return HashMap<Long, Land> or null if it doesn't exist and create is false.
+	 */
+	private HashMap<Long, Land> getChunks(String world, int dim, boolean create) {
+		HashMap<Integer, HashMap<Long, Land>> dims = lands.get(world);
+		if(dims == null) {
+			if(!create) {
+				return null;
+			}
+			dims = new HashMap<Integer, HashMap<Long, Land>>();
+			lands.put(world, dims);
+		}
+		HashMap<Long, Land> chunks = dims.get(dim);
+		if(chunks == null && create) {
+			chunks = new HashMap<Long, Land>();
+			dims.put(dim, chunks);
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Adds a piece of land to the index if there is not already land at its location.
+	 * 
+	 * @param l The land to add.
+	 */
+	private void add(Land l) {
+		HashMap<Long, Land> chunks = getChunks(l.getWorld(), l.getDimension(), true);
+		Long key = l.getChunkKey();
+		Land existing = chunks.get(key);
+		if(existing == null) {
+			chunks.put(key, l);
+		} else if(existing != l) {
+			return;
+		}
+		if(l.isClaimed() && getOwnedSet(l.getClaimerId(), true).add(l)) {
+			Utils.plugin.getFactionManager().landChanged(l.getClaimerId(), 1);
+		}
+	}
+	
+	/**
+	 * Removes a piece of land from the index.
+	 * 
+	 * @param l The land to remove.
+	 */
+	private void remove(Land l) {
+		HashMap<Long, Land> chunks = getChunks(l.getWorld(), l.getDimension(), false);
+		if(chunks != null && chunks.get(l.getChunkKey()) == l) {
+			chunks.remove(l.getChunkKey());
 		}
 	}
 	
 	/**
-	 * Returns the land at a given block location. Will be created if doesn't already exist.
+	 * Updates the indexes after a piece of land changed owner. Called by Land.claim().
+	 * 
+	 * @param l The land that was claimed or unclaimed.
+	 * @param oldId The id of the faction that owned it before.
+	 */
+	void update(Land l, int oldId) {
+		HashSet<Land> old = getOwnedSet(oldId, false);
+		if(old != null) {
+			if(old.remove(l)) {
+				Utils.plugin.getFactionManager().landChanged(oldId, -1);
+			}
+			if(old.isEmpty()) {
+				owned.remove(oldId);
+			}
+		}
+		if(l.isClaimed()) {
+			add(l);
+		} else {
+			remove(l);
+		}
+	}
+	
+	private HashSet<Land> getOwnedSet(int fId, boolean create) {
+		HashSet<Land> set = owned.get(fId);
+		if(set == null && create) {
+			set = new HashSet<Land>();
+			owned.put(fId, set);
+		}
+		return set;
+	}
+	
+	/**
+	 * Unclaims all the land owned by a faction and deletes it from the datasource in one batch.
+	 * 
+	 * @param fId The id of the owner faction.
+	 */
+	public void unclaimAll(int fId) {
+		HashSet<Land> set = owned.remove(fId);
+		if(set == null) {
+			return;
+		}
+		Utils.plugin.getFactionManager().landChanged(fId, -set.size());
+		for(Land l : set) {
+			l.release();
+			remove(l);
+			dirty.remove(l);
+		}
+		Utils.plugin.getDataSource().deleteLands(set);
+	}
+	
+	/**
+	 * Returns the land at a given block location.
+	 * Unclaimed land is returned as the read-only Land.WILDERNESS, use getEditableLandAt() to claim it.
 	 * 
 	 * @param location Block location.
 	 * @return Land
@@ -35,7 +180,8 @@ public class LandManager {
 	}
 	
 	/**
-	 * Returns the land at a given block location. Will be created if doesn't already exist.
+	 * Returns the land at a given block location.
+	 * Unclaimed land is returned as the read-only Land.WILDERNESS, use getEditableLandAt() to claim it.
 	 * 
 	 * @param x Block x.
 	 * @param y Block y (irrelevant).
@@ -49,7 +195,8 @@ public class LandManager {
 	}
 	
 	/**
-	 * Returns the land at a given chunk location. Will be created if doesn't already exist.
+	 * Returns the land at a given chunk location.
+	 * Unclaimed land is returned as the read-only Land.WILDERNESS, use getEditableLandAt() to claim it.
 	 * 
 	 * @param x Chunk x.
 	 * @param z Chunk z.
@@ -58,15 +205,38 @@ public class LandManager {
 	 * @return Land
 	 */
 	public Land getLandAt(int x, int z, String world, int dim) {
-		for(Land l : lands) {
-			if(l.getX() == x && l.getZ() == z && l.getWorld().equals(world) && l.getDimension() == dim) {
-				return l;
-			}
+		HashMap<Long, Land> chunks = getChunks(world, dim, false);
+		if(chunks == null) {
+			return Land.WILDERNESS;
 		}
-		
-		Land l = new Land(x, z, world, dim);
-		lands.add(l);
-		return l;
+		Land l = chunks.get(Land.chunkKey(x, z));
+		return l == null ? Land.WILDERNESS : l;
+	}
+	
+	/**
+	 * Returns the land at a given block location, creating it if it is unclaimed.
+	 * Created land is only kept once it is claimed.
+	 * 
+	 * @param location Block location.
+	 * @return Land
+	 */
+	public Land getEditableLandAt(Location location) {
+		return getEditableLandAt((int) location.getX() / 16, (int) location.getZ() / 16, location.getWorldName(), location.getType().getId());
+	}
+	
+	/**
+	 * Returns the land at a given chunk location, creating it if it is unclaimed.
+	 * Created land is only kept once it is claimed.
+	 * 
+	 * @param x Chunk x.
+	 * @param z Chunk z.
+	 * @param world The name of the world.
+	 * @param dim The dimension.
+	 * @return Land
+	 */
+	public Land getEditableLandAt(int x, int z, String world, int dim) {
+		Land l = getLandAt(x, z, world, dim);
+		return l == Land.WILDERNESS ? new Land(x, z, world, dim) : l;
 	}
 	
 	/**
@@ -86,24 +256,55 @@ public class LandManager {
 	 * @return Land[]
 	 */
 	public Land[] getOwnedBy(int fId) {
-		ArrayList<Land> subSet = new ArrayList<Land>();
-		for(Land l : lands) {
-			if(l.getClaimerId() == fId) {
-				subSet.add(l);
-			}
-		}
-		return subSet.toArray(new Land[0]);
+		HashSet<Land> set = getOwnedSet(fId, false);
+		return set == null ? new Land[0] : set.toArray(new Land[set.size()]);
+	}
+	
+	/**
+	 * Returns the amount of land owned by a given faction.
+	 * 
+	 * @param fId The id of the owner faction.
+	 * @return int
+	 */
+	public int getLandCount(int fId) {
+		HashSet<Land> set = getOwnedSet(fId, false);
+		return set == null ? 0 : set.size();
+	}
+	
+	/**
+	 * Marks a piece of land as changed so it is written on the next save. Called by Land.
+	 * 
+	 * @param l The land that changed.
+	 */
+	void markDirty(Land l) {
+		dirty.add(l);
 	}
 	
 	/**
-	 * Saves all claimed land to the datasource.
+	 * Forgets any pending save for a piece of land. Called by Land when it is unclaimed and deleted.
+	 * 
+	 * @param l The land that was unclaimed.
 	 */
-	public void save() {
-		Datasource ds = Utils.plugin.getDataSource();
-		for(Land l : lands) {
+	void clean(Land l) {
+		dirty.remove(l);
+	}
+	
+	/**
+	 * Saves all claimed land that changed since the last save to the datasource.
+	 * 
+	 * @return int The amount of land written.
+	 */
+	public int save() {
+		ArrayList<Land> changed = new ArrayList<Land>(dirty.size());
+		for(Land l : dirty) {
 			if(l.isClaimed()) {
-				ds.save(l);
+				changed.add(l);
 			}
 		}
+		dirty.clear();
+		if(!changed.isEmpty()) {
+			Utils.plugin.getDataSource().saveLands(changed);
+		}
+		return changed.size();
 	}
 }
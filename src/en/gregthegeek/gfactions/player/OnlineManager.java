@@ -0,0 +1,172 @@
+package en.gregthegeek.gfactions.player;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.canarymod.api.entity.living.humanoid.Player;
+
+import en.gregthegeek.util.Utils;
+
+/**
+ * Keeps track of online players and the factions they belong to.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class OnlineManager {
+	private final HashMap<String, Player> online = new HashMap<String, Player>(); // lowercase name -> player
+	private final HashMap<String, Integer> factionOf = new HashMap<String, Integer>(); // lowercase name -> faction id
+	private final HashMap<Integer, ArrayList<Player>> byFaction = new HashMap<Integer, ArrayList<Player>>(); // faction id -> online players
+	
+	/**
+	 * Should be called when a player logs in.
+	 * 
+	 * @param p The player that logged in.
+	 */
+	public void login(Player p) {
+		String key = p.getName().toLowerCase();
+		if(online.containsKey(key)) {
+			logout(p);
+		}
+		int id = Utils.plugin.getFactionManager().getFaction(p.getName()).getId();
+		online.put(key, p);
+		factionOf.put(key, id);
+		getBucket(id, true).add(p);
+	}
+	
+	/**
+	 * Should be called when a player logs out.
+	 * 
+	 * @param p The player that logged out.
+	 */
+	public void logout(Player p) {
+		String key = p.getName().toLowerCase();
+		Player old = online.remove(key);
+		Integer id = factionOf.remove(key);
+		if(old != null && id != null) {
+			removeFromBucket(id, old);
+		}
+	}
+	
+	/**
+	 * Records that a player joined a faction. Does nothing if the player is offline.
+	 * 
+	 * @param player The name of the player.
+	 * @param id The id of the faction joined.
+	 */
+	public void joined(String player, int id) {
+		move(player.toLowerCase(), id);
+	}
+	
+	/**
+	 * Records that a player left a faction. Does nothing if the player is offline or not in that faction.
+	 * 
+	 * @param player The name of the player.
+	 * @param id The id of the faction left.
+	 */
+	public void left(String player, int id) {
+		String key = player.toLowerCase();
+		Integer current = factionOf.get(key);
+		if(current != null && current == id) {
+			move(key, -1);
+		}
+	}
+	
+	private void move(String key, int id) {
+		Player p = online.get(key);
+		if(p == null) {
+			return;
+		}
+		Integer old = factionOf.put(key, id);
+		if(old != null) {
+			if(old == id) {
+				return;
+			}
+			removeFromBucket(old, p);
+		}
+		getBucket(id, true).add(p);
+	}
+	
+	private ArrayList<Player> getBucket(int id, boolean create) {
+		ArrayList<Player> bucket = byFaction.get(id);
+		if(bucket == null && create) {
+			bucket = new ArrayList<Player>();
+			byFaction.put(id, bucket);
+		}
+		return bucket;
+	}
+	
+	private void removeFromBucket(int id, Player p) {
+		ArrayList<Player> bucket = getBucket(id, false);
+		if(bucket != null) {
+			bucket.remove(p);
+			if(bucket.isEmpty()) {
+				byFaction.remove(id);
+			}
+		}
+	}
+	
+	/**
+	 * Returns an online player by name.
+	 * 
+	 * @param player The name of the player.
+	 * @return Player or null if the player is offline.
+	 */
+	public Player getPlayer(String player) {
+		return online.get(player.toLowerCase());
+	}
+	
+	/**
+	 * Returns whether or not a player is online.
+	 * 
+	 * @param player The name of the player.
+	 * @return boolean
+	 */
+	public boolean isOnline(String player) {
+		return online.containsKey(player.toLowerCase());
+	}
+	
+	/**
+	 * Returns all online players.
+	 * 
+	 * @return Collection<Player>
+	 */
+	public Collection<Player> getPlayers() {
+		return Collections.unmodifiableCollection(online.values());
+	}
+	
+	/**
+	 * Returns the id of the faction an online player belongs to.
+	 * 
+	 * @param player The name of the player.
+	 * @return int -1 (wilderness) if the player has no faction or is offline.
+	 */
+	public int getFactionId(String player) {
+		Integer id = factionOf.get(player.toLowerCase());
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * Returns the online players in a faction. The list must not be modified.
+	 * 
+	 * @param id The id of the faction.
+	 * @return List<Player>
+	 */
+	public List<Player> getOnline(int id) {
+		ArrayList<Player> bucket = getBucket(id, false);
+		return bucket == null ? Collections.<Player>emptyList() : Collections.unmodifiableList(bucket);
+	}
+	
+	/**
+	 * Returns every online player grouped by the id of their faction. The map must not be modified.
+	 * 
+	 * @return Map<Integer, ArrayList<Player>>
+	 */
+	public Map<Integer, ArrayList<Player>> getBuckets() {
+		return Collections.unmodifiableMap(byFaction);
+	}
+}
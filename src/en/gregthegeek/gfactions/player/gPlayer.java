@@ -1,13 +1,10 @@
 package en.gregthegeek.gfactions.player;
-import net.canarymod.Canary;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.chat.TextFormat;
-import net.canarymod.tasks.ServerTaskManager;
 import en.gregthegeek.gfactions.Config;
 import en.gregthegeek.gfactions.faction.Faction;
 import en.gregthegeek.gfactions.faction.SpecialFaction;
 import en.gregthegeek.gfactions.relation.Relation;
-import en.gregthegeek.util.PowerAdder;
 import en.gregthegeek.util.Utils;
 
 /**
@@ -63,7 +60,9 @@ public class gPlayer {
 	private int power;
 	public int bonusPower = 0;
 	private String title;
-	private transient Object powerLock;
+	private final transient Object powerLock = new Object(); // power is read by the background writer
+	private transient long regenSince = -1; // when regen was last settled, -1 while offline
+	private transient long regenProgress = 0; // online milliseconds already counted towards the next power
 	public transient boolean adminBypass;
 	private transient ChatChannel chatChannel;
 	public transient boolean chatSpy;
@@ -78,6 +77,20 @@ public class gPlayer {
 		this.autoClaim = false;
 	}
 	
+	/**
+	 * Creates a player as it was stored. Does not mark the player as changed.
+	 * 
+	 * @param name The name of the player.
+	 * @param power The player's power, not including bonus power.
+	 * @param bonusPower The player's bonus power.
+	 * @param title The player's title.
+	 */
+	public gPlayer(String name, int power, int bonusPower, String title) {
+		this(name, power);
+		this.bonusPower = bonusPower;
+		this.title = title;
+	}
+	
 	/**
 	 * Returns the name of this player (same as server name).
 	 * 
@@ -93,14 +106,113 @@ public class gPlayer {
 	 * @return int
 	 */
 	public int getPower() {
-		return power + bonusPower;
+		synchronized(powerLock) {
+			return power + regenerated(System.currentTimeMillis()) + bonusPower;
+		}
+	}
+	
+	/**
+	 * Returns the power last settled, without bonus power or power regenerated since. This is what is stored.
+	 * 
+	 * @return int
+	 */
+	public int getRawPower() {
+		synchronized(powerLock) {
+			return power;
+		}
+	}
+	
+	/**
+	 * Returns the power regenerated since it was last added to the stored power.
+	 * 
+	 * @return int
+	 */
+	public int getRegeneratedPower() {
+		synchronized(powerLock) {
+			return regenerated(System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Returns the power regenerated since the last settle. Power regenerates one point per interval spent online, up to the max.
+	 * Must hold the power lock.
+	 * 
+	 * @param now The current time.
+	 * @return int
+	 */
+	private int regenerated(long now) {
+		if(regenSince < 0) {
+			return 0;
+		}
+		int missing = Utils.plugin.getConfig().getMaxPower() - power;
+		int interval = Utils.plugin.getConfig().getPowerRegenInterval();
+		if(missing <= 0 || interval <= 0) {
+			return 0;
+		}
+		long online = regenProgress + Math.max(0, now - regenSince);
+		return (int) Math.min(missing, online / interval);
+	}
+	
+	/**
+	 * Adds the power regenerated since the last settle to the stored power.
+	 * 
+	 * @param now The current time.
+	 * @return boolean Whether or not power changed.
+	 */
+	private boolean settle(long now) {
+		int gained;
+		synchronized(powerLock) {
+			if(regenSince < 0) {
+				return false;
+			}
+			gained = regenerated(now);
+			power += gained;
+			if(power >= Utils.plugin.getConfig().getMaxPower()) { // nothing counts towards power while maxed out
+				regenProgress = 0;
+			} else {
+				regenProgress += Math.max(0, now - regenSince) - (long) gained * Utils.plugin.getConfig().getPowerRegenInterval();
+			}
+			regenSince = now;
+		}
+		if(gained > 0) {
+			Utils.plugin.getFactionManager().powerChanged(name, gained, 0);
+		}
+		return gained > 0;
+	}
+	
+	/**
+	 * Settles regenerated power so it is written on the next save. Called by gPlayerManager before saving.
+	 */
+	void settlePower() {
+		if(settle(System.currentTimeMillis())) {
+			save();
+		}
+	}
+	
+	/**
+	 * Starts counting time towards regenerating power. Called by gPlayerManager when the player logs in.
+	 */
+	void login() {
+		synchronized(powerLock) {
+			if(regenSince < 0) {
+				regenSince = System.currentTimeMillis();
+			}
+		}
 	}
 	
-	private Object getPowerLock() {
-		if(powerLock == null) {
-			powerLock = new Object();
+	/**
+	 * Settles regenerated power and stops counting time. Called by gPlayerManager when the player logs out.
+	 * Progress towards the next power is dropped, as it would be by a restart.
+	 */
+	void logout() {
+		boolean changed = settle(System.currentTimeMillis());
+		synchronized(powerLock) {
+			regenSince = -1;
+			regenProgress = 0;
+		}
+		if(changed) {
+			save();
 		}
-		return powerLock;
 	}
 	
 	/**
@@ -117,23 +229,6 @@ public class gPlayer {
 		return title == null ? prefix + name : String.format("%s %s%s", title, prefix, name);
 	}
 	
-	/**
-	 * Increases power by one.
-	 * 
-	 * @return Whether or not power is now maxed out.
-	 */
-	public boolean increasePower() {
-		int maxPower = Utils.plugin.getConfig().getMaxPower();
-		synchronized(getPowerLock()) {
-			power++;
-			if(power > maxPower) { // don't think I need this, but better safe than sorry
-				power = maxPower;
-			}
-		}
-		save();
-		return power == maxPower;
-	}
-	
 	/**
 	 * Decreases power by the amount specified in the config.
 	 * 
@@ -142,15 +237,17 @@ public class gPlayer {
 	 */
 	public boolean decreasePower(boolean warzone) {
 		Config config = Utils.plugin.getConfig();
-		if(power >= Utils.plugin.getConfig().getMaxPower()) { // if true, no power adder was running for this player
-			ServerTaskManager.addTask(new PowerAdder(this, Utils.plugin, config.getPowerRegenInterval()));
-		}
-		synchronized(getPowerLock()) {
+		settle(System.currentTimeMillis()); // regen up to now counts before the loss
+		int lost;
+		synchronized(powerLock) {
+			int old = power;
 			power -= warzone ? config.getPowerLossOnDeathWarzone() : config.getPowerLossOnDeath();
 			if(power < 0) {
 				power = 0;
 			}
+			lost = old - power;
 		}
+		Utils.plugin.getFactionManager().powerChanged(name, -lost, 0);
 		save();
 		return power == 0;
 	}
@@ -161,7 +258,7 @@ public class gPlayer {
 	 * @return boolean
 	 */
 	public boolean isOnline() {
-		return toPlayer() != null;
+		return Utils.plugin.getOnlineManager().isOnline(name);
 	}
 	
 	/**
@@ -170,7 +267,7 @@ public class gPlayer {
 	 * @return Player
 	 */
 	public Player toPlayer() {
-		return Canary.getServer().getPlayer(name);
+		return Utils.plugin.getOnlineManager().getPlayer(name);
 	}
 	
 	/**
@@ -216,6 +313,8 @@ public class gPlayer {
 	private void save() {
 		if(Utils.plugin.getConfig().getSaveInterval() < 0) {
 			Utils.plugin.getDataSource().save(new gPlayer[] {this});
+		} else {
+			Utils.plugin.getPlayerManager().markDirty(this);
 		}
 	}
 	
@@ -227,8 +326,4 @@ public class gPlayer {
 	public int getMaxPower() {
 		return Utils.plugin.getConfig().getMaxPower() + bonusPower;
 	}
-	
-	public int getRawPower() {
-		return power;
-	}
 }
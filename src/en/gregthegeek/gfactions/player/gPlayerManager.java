@@ -1,11 +1,12 @@
 package en.gregthegeek.gfactions.player;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
-import net.canarymod.tasks.ServerTaskManager;
+import net.canarymod.api.entity.living.humanoid.Player;
 
 import en.gregthegeek.gfactions.Config;
-import en.gregthegeek.util.PowerAdder;
 import en.gregthegeek.util.Utils;
 
 /**
@@ -15,10 +16,22 @@ import en.gregthegeek.util.Utils;
  *
  */
 public class gPlayerManager {
-	private ArrayList<gPlayer> players = new ArrayList<gPlayer>();
+	private static final int MAX_UNKNOWN = 1024;
+	private final HashMap<String, gPlayer> players = new HashMap<String, gPlayer>(); // lowercase name -> player
+	private final HashSet<String> unknown = new HashSet<String>(); // lowercase names not found in the datasource
+	private final HashSet<gPlayer> dirty = new HashSet<gPlayer>(); // players changed since the last save
+	private final boolean complete; // whether every stored player is already in memory
 	
-	public gPlayerManager() {
-		
+	/**
+	 * @param all Every player in the datasource, or null to load players as they are needed.
+	 */
+	public gPlayerManager(gPlayer[] all) {
+		complete = all != null;
+		if(complete) {
+			for(gPlayer gp : all) {
+				players.put(gp.getName().toLowerCase(), gp);
+			}
+		}
 	}
 	
 	/**
@@ -32,21 +45,24 @@ public class gPlayerManager {
 			return null;
 		}
 		
-		for(gPlayer p : players) {
-			if(p.getName().equalsIgnoreCase(name)) {
-				return p;
-			}
+		String key = name.toLowerCase();
+		gPlayer gp = players.get(key);
+		if(gp != null) {
+			return gp;
+		}
+		if(complete || unknown.contains(key)) {
+			return null;
 		}
 		
-		gPlayer gp = Utils.plugin.getDataSource().getPlayer(name);
+		gp = Utils.plugin.getDataSource().getPlayer(name);
 		if(gp == null) {
+			if(unknown.size() >= MAX_UNKNOWN) {
+				unknown.clear();
+			}
+			unknown.add(key);
 			return null;
 		}
-		players.add(gp);
-		if(gp.getPower() < gp.getMaxPower()) {
-			ServerTaskManager.addTask(new PowerAdder(gp, Utils.plugin, Utils.plugin.getConfig().getPowerRegenInterval()));
-		}
-		
+		players.put(key, gp);
 		return gp;
 	}
 	
@@ -56,31 +72,63 @@ public class gPlayerManager {
 	 * @param name
 	 */
 	public void initPlayer(String name) {
-		if(getPlayer(name) == null) {
-			Config config = Utils.plugin.getConfig();
-			gPlayer gp = new gPlayer(name, config.getStartPower());
-			players.add(gp);
+		Config config = Utils.plugin.getConfig();
+		gPlayer gp = getPlayer(name);
+		if(gp == null) {
+			gp = new gPlayer(name, config.getStartPower());
+			Utils.plugin.getFactionManager().powerChanged(name, gp.getPower(), gp.getMaxPower()); // in case the player was already listed in a faction
+			String key = name.toLowerCase();
+			players.put(key, gp);
+			unknown.remove(key);
 			
 			if(config.getSaveInterval() < 0) {
 				Utils.plugin.getDataSource().save(new gPlayer[] {gp});
-			}
-			
-			if(gp.getPower() < gp.getMaxPower()) {
-				ServerTaskManager.addTask(new PowerAdder(gp, Utils.plugin, Utils.plugin.getConfig().getPowerRegenInterval()));
+			} else {
+				dirty.add(gp);
 			}
 		}
+		gp.login(); // power only regenerates while online
 	}
 	
 	/**
-	 * Saves all gPlayers to the datasource.
+	 * Should be called when a player logs out.
+	 * 
+	 * @param name
+	 */
+	public void logout(String name) {
+		gPlayer gp = players.get(name.toLowerCase());
+		if(gp != null) {
+			gp.logout();
+		}
+	}
+	
+	/**
+	 * Marks a player as changed so it is written on the next save. Called by gPlayer.
+	 * 
+	 * @param gp The player that changed.
 	 */
-	public void save() {
-		Object[] or = players.toArray();
-		gPlayer[] n = new gPlayer[or.length];
-		for(int i=0; i<n.length; i++) {
-			n[i] = (gPlayer) or[i];
+	void markDirty(gPlayer gp) {
+		dirty.add(gp);
+	}
+	
+	/**
+	 * Saves all gPlayers that changed since the last save to the datasource.
+	 * 
+	 * @return int The amount of players written.
+	 */
+	public int save() {
+		for(Player p : Utils.plugin.getOnlineManager().getPlayers()) {
+			gPlayer gp = players.get(p.getName().toLowerCase());
+			if(gp != null) {
+				gp.settlePower();
+			}
+		}
+		int count = dirty.size();
+		if(count > 0) {
+			Utils.plugin.getDataSource().save(dirty.toArray(new gPlayer[count]));
+			dirty.clear();
 		}
-		Utils.plugin.getDataSource().save(n);
+		return count;
 	}
 	
 	/**
@@ -90,8 +138,9 @@ public class gPlayerManager {
 	 */
 	public gPlayer[] spying() {
 		ArrayList<gPlayer> rt = new ArrayList<gPlayer>();
-		for(gPlayer gp : players) {
-			if(gp.chatSpy && gp.isOnline()) {
+		for(Player p : Utils.plugin.getOnlineManager().getPlayers()) {
+			gPlayer gp = players.get(p.getName().toLowerCase());
+			if(gp != null && gp.chatSpy) {
 				rt.add(gp);
 			}
 		}
@@ -84,6 +84,28 @@ public class Relation {
 	    return two;
 	}
 	
+	/**
+	 * Returns the key of the pair of factions in this relation. The order of the factions does not matter.
+	 * 
+	 * @return long
+	 */
+	public long getKey() {
+		return key(one, two);
+	}
+	
+	/**
+	 * Packs a pair of faction ids into a single long, smaller id first, suitable for use as a map key.
+	 * 
+	 * @param one The id of one faction.
+	 * @param two The id of the other faction.
+	 * @return long
+	 */
+	public static long key(int one, int two) {
+		int min = Math.min(one, two);
+		int max = Math.max(one, two);
+		return ((long) min << 32) | (max & 0xFFFFFFFFL);
+	}
+	
 	/**
 	 * Returns whether or not the given faction is either one or two in this relation.
 	 * 
@@ -1,6 +1,8 @@
 package en.gregthegeek.gfactions.relation;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import en.gregthegeek.gfactions.db.Datasource;
 import en.gregthegeek.gfactions.faction.Faction;
@@ -14,8 +16,65 @@ import en.gregthegeek.util.Utils;
  *
  */
 public class RelationManager {
-	private final ArrayList<Relation> relations = new ArrayList<Relation>();
+	private final HashMap<Long, Relation> relations = new HashMap<Long, Relation>(); // Relation.key(one, two) -> relation, neutral if absent
+	private final HashMap<Integer, HashSet<Integer>> allies = new HashMap<Integer, HashSet<Integer>>(); // faction id -> ids of allied factions
+	private final HashMap<Integer, HashSet<Integer>> enemies = new HashMap<Integer, HashSet<Integer>>(); // faction id -> ids of enemy factions
 	private final ArrayList<RelationRequest> requests = new ArrayList<RelationRequest>();
+	private final HashSet<Long> dirty = new HashSet<Long>(); // keys of relations changed since the last save
+	
+	/**
+	 * @param all Every relation in the datasource.
+	 */
+	public RelationManager(Relation[] all) {
+		for(Relation r : all) {
+			if(getAdjacency(r.type) != null) { // neutral is the default, no need to hold it
+				relations.put(r.getKey(), r);
+				link(r);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the adjacency map for a relation type.
+	 * 
+	 * @param type The relation type.
+	 * @return HashMap<Integer, HashSet<Integer>> or null if the type is not ALLY or ENEMY.
+	 */
+	private HashMap<Integer, HashSet<Integer>> getAdjacency(Relation.Type type) {
+		switch(type) {
+		case ALLY:
+			return allies;
+		case ENEMY:
+			return enemies;
+		default:
+			return null;
+		}
+	}
+	
+	private void link(Relation r) {
+		HashMap<Integer, HashSet<Integer>> adj = getAdjacency(r.type);
+		if(adj != null) {
+			getAdjacent(adj, r.getOneId()).add(r.getTwoId());
+			getAdjacent(adj, r.getTwoId()).add(r.getOneId());
+		}
+	}
+	
+	private void unlink(Relation r) {
+		HashMap<Integer, HashSet<Integer>> adj = getAdjacency(r.type);
+		if(adj != null) {
+			getAdjacent(adj, r.getOneId()).remove(r.getTwoId());
+			getAdjacent(adj, r.getTwoId()).remove(r.getOneId());
+		}
+	}
+	
+	private static HashSet<Integer> getAdjacent(HashMap<Integer, HashSet<Integer>> adj, int id) {
+		HashSet<Integer> set = adj.get(id);
+		if(set == null) {
+			set = new HashSet<Integer>();
+			adj.put(id, set);
+		}
+		return set;
+	}
 	
 	/**
 	 * Returns the relation between two factions.
@@ -30,25 +89,8 @@ public class RelationManager {
 		} else if(one.equals(two)) {
 			return Relation.Type.SAME;
 		}
-		for(Relation r : relations) {
-			if(r.isInvolved(one) && r.isInvolved(two)) {
-				return r.type;
-			}
-		}
-		
-		Relation r = Utils.plugin.getDataSource().getRelation(one, two);
-		if(r != null) {
-			relations.add(r);
-			return r.type;
-		} else {
-			r = Utils.plugin.getDataSource().getRelation(two, one);
-			if(r != null) {
-				relations.add(r);
-				return r.type;
-			}
-		}
-		
-		return Relation.Type.NEUTRAL;
+		Relation r = relations.get(Relation.key(one.getId(), two.getId()));
+		return r == null ? Relation.Type.NEUTRAL : r.type;
 	}
 	
 	/**
@@ -63,41 +105,58 @@ public class RelationManager {
 		return getRelation(fm.getFaction(one), fm.getFaction(two));
 	}
 	
+	/**
+	 * Sets the relation between two factions. Neutral relations are not stored.
+	 * 
+	 * @param one The first faction.
+	 * @param two The second faction.
+	 * @param type The new relation.
+	 */
 	public void setRelation(Faction one, Faction two, Relation.Type type) {
-		int index = locateRelation(one, two);
-		if(index < 0) {
-			Relation r = new Relation(type, one, two);
-			relations.add(r);
-			if(Utils.plugin.getConfig().getSaveInterval() < 0) {
-				Utils.warning("saving relation %s", r);
-				Utils.plugin.getDataSource().save(new Relation[] {r});
+		Long key = Relation.key(one.getId(), two.getId());
+		Relation r = relations.get(key);
+		if(type == Relation.Type.NEUTRAL) {
+			if(r != null) {
+				relations.remove(key);
+				dirty.remove(key);
+				unlink(r);
+				Utils.plugin.getDataSource().delete(r);
 			}
+			return;
+		}
+		if(r == null) {
+			r = new Relation(type, one, two);
+			relations.put(key, r);
 		} else {
-			relations.get(index).type = type; 
+			unlink(r);
+			r.type = type;
 		}
-	}
-	
-	private int locateRelation(Faction one, Faction two) {
-		int size = relations.size();
-		for(int i=0; i<size; i++) {
-			Relation r = relations.get(i);
-			if(r.isInvolved(one) && r.isInvolved(two)) {
-				return i;
-			}
+		link(r);
+		if(Utils.plugin.getConfig().getSaveInterval() < 0) {
+			Utils.plugin.getDataSource().save(new Relation[] {r});
+		} else {
+			dirty.add(key);
 		}
-		return -1;
 	}
 	
 	/**
-	 * Saves all relations to storage.
+	 * Saves all relations that changed since the last save to storage.
+	 * 
+	 * @return int The amount of relations written.
 	 */
-	public void save() {
-		Object[] arr = relations.toArray();
-		Relation[] rt = new Relation[arr.length];
-		for(int i=0; i<rt.length; i++) {
-			rt[i] = (Relation) arr[i];
+	public int save() {
+		ArrayList<Relation> changed = new ArrayList<Relation>(dirty.size());
+		for(Long key : dirty) {
+			Relation r = relations.get(key);
+			if(r != null) {
+				changed.add(r);
+			}
+		}
+		dirty.clear();
+		if(!changed.isEmpty()) {
+			Utils.plugin.getDataSource().save(changed.toArray(new Relation[changed.size()]));
 		}
-		Utils.plugin.getDataSource().save(rt);
+		return changed.size();
 	}
 	
 	/**
@@ -108,13 +167,18 @@ public class RelationManager {
 	 * @return Faction[]
 	 */
 	public Faction[] getRelations(Faction original, Relation.Type type) {
-		ArrayList<Faction> rt = new ArrayList<Faction>();
-		for(Relation r : relations) {
-			if(r.isInvolved(original) && r.type == type) {
-				rt.add(r.getOther(original));
-			}
+		HashMap<Integer, HashSet<Integer>> adj = getAdjacency(type);
+		HashSet<Integer> ids = adj == null ? null : adj.get(original.getId());
+		if(ids == null) {
+			return new Faction[0];
+		}
+		FactionManager fm = Utils.plugin.getFactionManager();
+		Faction[] rt = new Faction[ids.size()];
+		int i = 0;
+		for(int id : ids) {
+			rt[i++] = fm.getFaction(id);
 		}
-		return rt.toArray(new Faction[0]);
+		return rt;
 	}
 	
 	/**
@@ -146,13 +210,8 @@ public class RelationManager {
 	 */
 	public void removeAll(Faction f) {
 		Datasource ds = Utils.plugin.getDataSource();
-		for(int i=relations.size()-1; i>=0; i--) {
-			Relation r = relations.get(i);
-			if(r.isInvolved(f)) {
-				relations.remove(r);
-				ds.delete(r);
-			}
-		}
+		removeAll(allies, f.getId(), ds);
+		removeAll(enemies, f.getId(), ds);
 		
 		for(int i=requests.size()-1; i>=0; i--) {
 			RelationRequest r = requests.get(i);
@@ -161,4 +220,23 @@ public class RelationManager {
 			}
 		}
 	}
+	
+	private void removeAll(HashMap<Integer, HashSet<Integer>> adj, int id, Datasource ds) {
+		HashSet<Integer> others = adj.remove(id);
+		if(others == null) {
+			return;
+		}
+		for(int other : others) {
+			HashSet<Integer> back = adj.get(other);
+			if(back != null) {
+				back.remove(id);
+			}
+			Long key = Relation.key(id, other);
+			Relation r = relations.remove(key);
+			dirty.remove(key);
+			if(r != null) {
+				ds.delete(r);
+			}
+		}
+	}
 }
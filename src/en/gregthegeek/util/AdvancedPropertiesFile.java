@@ -3,8 +3,9 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -69,24 +70,33 @@ public class AdvancedPropertiesFile {
 	
 	/**
 	 * Saves all data to file.
+	 * The data is written to a temporary file first, so the old file is left untouched if writing fails.
 	 * 
 	 * @throws IOException
 	 */
 	public void save() throws IOException {
 		File base = new File(filePath);
-		BufferedWriter writer = new BufferedWriter(new FileWriter(base));
-		if(header != null) {
-			writer.append(String.format("##%s\n", header));
-		}
-		for(Entry<String, Property> e : map.entrySet()) {
-			Property p = e.getValue();
-			String comment = p.getComment();
-			if(comment != null) {
-				writer.append(String.format("#%s\n", comment));
+		File tmp = new File(filePath + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos));
+		try {
+			if(header != null) {
+				writer.append("##").append(header).append('\n');
+			}
+			for(Entry<String, Property> e : map.entrySet()) {
+				Property p = e.getValue();
+				String comment = p.getComment();
+				if(comment != null) {
+					writer.append('#').append(comment).append('\n');
+				}
+				writer.append(e.getKey()).append(':').append(p.valueAsString()).append('\n');
 			}
-			writer.append(String.format("%s:%s\n", e.getKey(), p.valueAsString()));
+			writer.flush();
+			fos.getFD().sync();
+		} finally {
+			writer.close();
 		}
-		writer.close();
+		Utils.replaceFile(tmp, base);
 	}
 	
 	/**
@@ -12,12 +12,15 @@ import net.canarymod.tasks.TaskOwner;
 public class AutoSaver extends CancellableRunnable {
 
 	public AutoSaver(TaskOwner owner, long delay) {
-        super(owner, delay);
+        super(owner, delay, "autosave");
     }
 
     @Override
 	public void execute() {
-		Utils.saveAll();
+		int count = Utils.saveAll();
+		if(count > 0) {
+			Utils.info("Autosave wrote %d changed rows.", count);
+		}
 		ServerTaskManager.addTask(new AutoSaver(getOwner(), Utils.plugin.getConfig().getSaveInterval()));
 	}
 }
@@ -1,31 +1,54 @@
 package en.gregthegeek.util;
 
 import net.canarymod.tasks.ServerTask;
+import net.canarymod.tasks.ServerTaskManager;
 import net.canarymod.tasks.TaskOwner;
 
 /**
- * Represents a runnable that can be cancelled. It will not realize it is cancelled until it is time for it to run, in which case it will simply not execute.
+ * Represents a runnable that can be cancelled. Cancelling removes it from the ThreadManager and the server's task list right away. If the server runs it anyway, it will simply not execute.
  * 
  * @author gregthegeek
  *
  */
 public abstract class CancellableRunnable extends ServerTask {
-	private boolean isCancelled;
+	private final String key;
+	private volatile boolean isCancelled;
 	
 	public CancellableRunnable(TaskOwner owner, long delay) {
+		this(owner, delay, ThreadManager.PLUGIN);
+	}
+	
+	/**
+	 * @param owner The owner of the task.
+	 * @param delay The delay before the task runs.
+	 * @param key What the task belongs to (a player's name or a subsystem), used to cancel it with ThreadManager.cancel().
+	 */
+	public CancellableRunnable(TaskOwner owner, long delay, String key) {
 	    super(owner, delay, false);
+	    this.key = key;
 		isCancelled = false;
-		ThreadManager.threads.add(this);
+		ThreadManager.register(this);
 	}
 	
 	public final void cancel() {
 		isCancelled = true;
+		ThreadManager.unregister(this);
+		ServerTaskManager.removeTask(this);
+	}
+	
+	/**
+	 * Returns what this task belongs to.
+	 * 
+	 * @return String
+	 */
+	public final String getKey() {
+		return key;
 	}
 
 	@Override
 	public final void run() {
 		if(!isCancelled) {
-			ThreadManager.threads.remove(this);
+			ThreadManager.unregister(this);
 			execute();
 		}
 	}
@@ -0,0 +1,217 @@
+package en.gregthegeek.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A sorted collection that can also be read by position.
+ * Adding, removing, and finding the element at a position take O(log n), and reading a range takes O(log n + length).
+ * Elements that compare as equal are treated as the same element, so the comparator should break ties.
+ * 
+ * @author gregthegeek
+ *
+ */
+public class RankedTree<E> {
+	private static class Node<E> {
+		private final E value;
+		private final int priority;
+		private int size = 1; // nodes in this subtree
+		private Node<E> left;
+		private Node<E> right;
+		
+		private Node(E value, int priority) {
+			this.value = value;
+			this.priority = priority;
+		}
+	}
+	
+	private final Comparator<? super E> comparator;
+	private final Random random = new Random();
+	private Node<E> root;
+	
+	/**
+	 * @param comparator The order of the elements.
+	 */
+	public RankedTree(Comparator<? super E> comparator) {
+		this.comparator = comparator;
+	}
+	
+	/**
+	 * Adds an element. Does nothing if an equal element is already present.
+	 * 
+	 * @param e The element to add.
+	 */
+	public void add(E e) {
+		if(!contains(e)) {
+			root = insert(root, new Node<E>(e, random.nextInt()));
+		}
+	}
+	
+	/**
+	 * Removes an element.
+	 * 
+	 * @param e The element to remove.
+	 * @return boolean Whether or not the element was present.
+	 */
+	public boolean remove(E e) {
+		int before = size();
+		root = remove(root, e);
+		return size() < before;
+	}
+	
+	/**
+	 * Returns whether or not an equal element is present.
+	 * 
+	 * @param e The element to look for.
+	 * @return boolean
+	 */
+	public boolean contains(E e) {
+		Node<E> n = root;
+		while(n != null) {
+			int c = comparator.compare(e, n.value);
+			if(c == 0) {
+				return true;
+			}
+			n = c < 0 ? n.left : n.right;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the amount of elements.
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return size(root);
+	}
+	
+	/**
+	 * Returns the elements in order, starting at a position.
+	 * 
+	 * @param from The position of the first element to return.
+	 * @param count The maximum amount of elements to return.
+	 * @return List<E> Shorter than count if the end is reached.
+	 */
+	public List<E> range(int from, int count) {
+		ArrayList<E> rt = new ArrayList<E>(Math.max(0, Math.min(count, size() - from)));
+		if(from < 0 || count <= 0) {
+			return rt;
+		}
+		// walk down to the starting position, remembering every node that comes after it
+		ArrayDeque<Node<E>> next = new ArrayDeque<Node<E>>();
+		Node<E> n = root;
+		int i = from;
+		while(n != null) {
+			int leftSize = size(n.left);
+			if(i < leftSize) {
+				next.push(n);
+				n = n.left;
+			} else if(i == leftSize) {
+				next.push(n);
+				break;
+			} else {
+				i -= leftSize + 1;
+				n = n.right;
+			}
+		}
+		while(!next.isEmpty() && rt.size() < count) {
+			Node<E> x = next.pop();
+			rt.add(x.value);
+			for(Node<E> y = x.right; y != null; y = y.left) {
+				next.push(y);
+			}
+		}
+		return rt;
+	}
+	
+	private static int size(Node<?> n) {
+		return n == null ? 0 : n.size;
+	}
+	
+	private static void resize(Node<?> n) {
+		n.size = size(n.left) + size(n.right) + 1;
+	}
+	
+	private Node<E> insert(Node<E> n, Node<E> x) {
+		if(n == null) {
+			return x;
+		}
+		if(x.priority > n.priority) {
+			Node<E>[] parts = split(n, x.value);
+			x.left = parts[0];
+			x.right = parts[1];
+			resize(x);
+			return x;
+		}
+		if(comparator.compare(x.value, n.value) < 0) {
+			n.left = insert(n.left, x);
+		} else {
+			n.right = insert(n.right, x);
+		}
+		resize(n);
+		return n;
+	}
+	
+	/**
+	 * Splits a subtree into the elements before e and the rest.
+	 * 
+	 * @return Node<E>[] {before, rest}
+	 */
+	@SuppressWarnings("unchecked")
+	private Node<E>[] split(Node<E> n, E e) {
+		if(n == null) {
+			return new Node[2];
+		}
+		Node<E>[] parts;
+		if(comparator.compare(n.value, e) < 0) {
+			parts = split(n.right, e);
+			n.right = parts[0];
+			parts[0] = n;
+		} else {
+			parts = split(n.left, e);
+			n.left = parts[1];
+			parts[1] = n;
+		}
+		resize(n);
+		return parts;
+	}
+	
+	private Node<E> remove(Node<E> n, E e) {
+		if(n == null) {
+			return null;
+		}
+		int c = comparator.compare(e, n.value);
+		if(c == 0) {
+			return merge(n.left, n.right);
+		} else if(c < 0) {
+			n.left = remove(n.left, e);
+		} else {
+			n.right = remove(n.right, e);
+		}
+		resize(n);
+		return n;
+	}
+	
+	/**
+	 * Joins two subtrees where every element of a comes before every element of b.
+	 */
+	private Node<E> merge(Node<E> a, Node<E> b) {
+		if(a == null) {
+			return b;
+		} else if(b == null) {
+			return a;
+		} else if(a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			resize(a);
+			return a;
+		} else {
+			b.left = merge(a, b.left);
+			resize(b);
+			return b;
+		}
+	}
+}
@@ -1,33 +1,111 @@
 package en.gregthegeek.util;
-import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.canarymod.api.entity.living.humanoid.Player;
 
-
 /**
  * Keeps track of the plugin's active runnables. Works nicely with CancellableRunnable.
+ * Runnables are grouped by the key of whatever they belong to (a player's name or a subsystem), so a group can be cancelled without looking at the others.
  * 
  * @author gregthegeek
  *
  */
 public class ThreadManager {
-	public static final ArrayList<CancellableRunnable> threads  = new ArrayList<CancellableRunnable>();
+	public static final String PLUGIN = "gFactions"; // key for runnables that don't belong to anything more specific
+	private static final ConcurrentHashMap<String, HashSet<CancellableRunnable>> threads = new ConcurrentHashMap<String, HashSet<CancellableRunnable>>(); // key -> pending runnables
 	
-	public static void stopAll() {
-		for(CancellableRunnable r : threads) {
+	/**
+	 * Records a runnable that is waiting to run. Called by CancellableRunnable.
+	 * 
+	 * @param r The runnable.
+	 */
+	static void register(CancellableRunnable r) {
+		String key = r.getKey();
+		while(true) {
+			HashSet<CancellableRunnable> group = threads.get(key);
+			if(group == null) {
+				group = new HashSet<CancellableRunnable>();
+				HashSet<CancellableRunnable> existing = threads.putIfAbsent(key, group);
+				if(existing != null) {
+					group = existing;
+				}
+			}
+			synchronized(group) {
+				if(threads.get(key) == group) { // otherwise it was emptied and dropped, try again
+					group.add(r);
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Forgets a runnable that ran or was cancelled. Called by CancellableRunnable.
+	 * 
+	 * @param r The runnable.
+	 */
+	static void unregister(CancellableRunnable r) {
+		String key = r.getKey();
+		HashSet<CancellableRunnable> group = threads.get(key);
+		if(group != null) {
+			synchronized(group) {
+				if(group.remove(r) && group.isEmpty()) {
+					threads.remove(key, group);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Cancels every runnable with the given key.
+	 * 
+	 * @param key The key the runnables were created with.
+	 * @return int The amount of runnables cancelled.
+	 */
+	public static int cancel(String key) {
+		HashSet<CancellableRunnable> group = threads.remove(key);
+		if(group == null) {
+			return 0;
+		}
+		CancellableRunnable[] pending;
+		synchronized(group) {
+			pending = group.toArray(new CancellableRunnable[group.size()]);
+			group.clear();
+		}
+		for(CancellableRunnable r : pending) {
 			r.cancel();
 		}
+		return pending.length;
 	}
 	
-	public static void disconnect(Player p) {
-		int size = threads.size();
-		String name = p.getName();
-		for(int i=0; i<size; i++) {
-			CancellableRunnable r = threads.get(i);
-			if(r instanceof PowerAdder && ((PowerAdder) r).getPlayer().equals(name)) {
-				r.cancel();
-				break;
+	/**
+	 * Returns the amount of runnables waiting to run.
+	 * 
+	 * @return int
+	 */
+	public static int size() {
+		int count = 0;
+		for(HashSet<CancellableRunnable> group : threads.values()) {
+			synchronized(group) {
+				count += group.size();
 			}
 		}
+		return count;
+	}
+	
+	public static void stopAll() {
+		for(String key : threads.keySet()) {
+			cancel(key);
+		}
+	}
+	
+	/**
+	 * Cancels the runnables that belong to a player. Should be called when a player logs out.
+	 * 
+	 * @param p The player that logged out.
+	 */
+	public static void disconnect(Player p) {
+		cancel(p.getName());
 	}
 }
@@ -7,7 +7,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -22,8 +21,6 @@ import en.gregthegeek.gfactions.gFactions;
 import en.gregthegeek.gfactions.db.DatasourceException;
 import en.gregthegeek.gfactions.faction.Faction;
 import en.gregthegeek.gfactions.faction.SpecialFaction;
-import en.gregthegeek.gfactions.relation.Relation;
-import en.gregthegeek.gfactions.relation.RelationManager;
 
 
 public abstract class Utils {
@@ -86,6 +83,16 @@ public abstract class Utils {
 		log.warning(String.format(msg, objs));
 	}
 	
+	/**
+	 * Logs a message to the server log.
+	 * 
+	 * @param msg The message to log.
+	 * @param objs Formatting options for the message.
+	 */
+	public static void info(String msg, Object... objs) {
+		log.info(String.format(msg, objs));
+	}
+	
 	/**
 	 * Returns the yes value in green if true, and the no value in red if it's not.
 	 * 
@@ -217,14 +224,41 @@ public abstract class Utils {
 	}
 	
 	/**
-	 * Saves all data.
+	 * Moves a finished temporary file over another file.
+	 * On systems where a rename cannot replace a file, the old file is moved aside first so one of the two always exists.
+	 * 
+	 * @param tmp The file to move.
+	 * @param target The file to replace.
+	 * @throws IOException If the file could not be moved.
+	 */
+	public static void replaceFile(File tmp, File target) throws IOException {
+		if(tmp.renameTo(target)) {
+			return;
+		}
+		File old = new File(target.getPath() + ".old");
+		old.delete();
+		if(target.exists() && !target.renameTo(old)) {
+			throw new IOException("Unable to replace " + target);
+		}
+		if(!tmp.renameTo(target)) {
+			old.renameTo(target);
+			throw new IOException("Unable to replace " + target);
+		}
+		old.delete();
+	}
+	
+	/**
+	 * Saves all data that changed since the last save.
+	 * 
+	 * @return int The amount of factions, players, relations, land, and balances written.
 	 */
-	public static void saveAll() {
-		plugin.getFactionManager().save();
-    	plugin.getPlayerManager().save();
-    	plugin.getRelationManager().save();
-    	plugin.getLandManager().save();
-    	plugin.getEconomy().save();
+	public static int saveAll() {
+		int count = plugin.getFactionManager().save();
+    	count += plugin.getPlayerManager().save();
+    	count += plugin.getRelationManager().save();
+    	count += plugin.getLandManager().save();
+    	count += plugin.getEconomy().save();
+    	return count;
 	}
 	
 	/**
@@ -249,39 +283,6 @@ public abstract class Utils {
 		return plugin.getPlayerManager().getPlayer(p.getName()).adminBypass;
 	}
 	
-	/**
-	 * Returns an array of the currently online players, sorted by relation.
-	 * 
-	 * @param basedOn Players are sorted by their relation to this faction.
-	 * @return Player[][] - [0] = neutral, [1] = allies, [2] = enemies
-	 */
-	public static Player[][] getOnlinePlayersSorted(Faction basedOn) {
-		RelationManager rManager = plugin.getRelationManager();
-		
-		ArrayList<Player> allies = new ArrayList<Player>();
-		for(Faction f : rManager.getRelations(basedOn, Relation.Type.ALLY)) {
-			for(Player p : f.getOnlineMembers()) {
-				allies.add(p);
-			}
-		}
-		
-		ArrayList<Player> enemies = new ArrayList<Player>();
-		for(Faction f : rManager.getRelations(basedOn, Relation.Type.ENEMY)) {
-			for(Player p : f.getOnlineMembers()) {
-				enemies.add(p);
-			}
-		}
-		
-		List<Player> neutral = Arrays.asList(plugin.getFactionManager().getFaction(-1).getOnlineMembers());
-		for(Faction f : rManager.getRelations(basedOn, Relation.Type.NEUTRAL)) {
-			for(Player p : f.getOnlineMembers()) {
-				neutral.add(p);
-			}
-		}
-		
-		return new Player[][] {neutral.toArray(new Player[0]), allies.toArray(new Player[0]), enemies.toArray(new Player[0])};
-	}
-	
 	/**
 	 * Returns the distance between two locations.
 	 * Why was this removed from Location?